@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android;
+
+/**
+ * Policy escalating the scanner to the slower {@link Scanner.Flags#SMALLTARGET}
+ * mode when the default mode keeps missing on good quality frames.
+ * <p>
+ * Scanning starts in the default mode. After {@link #escalateAfterMisses}
+ * consecutive frames without any result, among those with a quality score of at least
+ * {@link #minQualityScore}, the policy switches to the small target mode, until a
+ * result is found or for at most {@link #escalationBudget} milliseconds.
+ * <p>
+ * The number of scans, hits and the time spent scanning are counted per mode, to check
+ * whether the escalation pays off. This class is thread-safe.
+ */
+public class AdaptiveScanPolicy {
+
+  /**
+   * Scanning modes, used to query the counters.
+   */
+  public static final class Mode {
+    /** Default mode. */
+    public static final int DEFAULT = 0;
+    /** Small target mode. */
+    public static final int SMALL_TARGET = 1;
+  }
+
+  /**
+   * Number of consecutive misses on good quality frames after which the small
+   * target mode is used.
+   * <p>
+   * By default, this value is set to 5.
+   */
+  public int escalateAfterMisses = 5;
+
+  /**
+   * Minimum quality score, as computed by
+   * {@link com.moodstocks.android.core.FrameSelector#score(byte[], int, int)}, for a
+   * missed frame to count towards the escalation. Blurry or badly exposed frames are
+   * not worth a slower scan.
+   * <p>
+   * By default, this value is set to 6.
+   */
+  public float minQualityScore = 6;
+
+  /**
+   * Maximum time in milliseconds spent in the small target mode before falling back to
+   * the default mode.
+   * <p>
+   * By default, this value is set to 3000.
+   */
+  public long escalationBudget = 3000;
+
+  private int misses = 0;
+  private long escalated_since = -1;
+  private final long[] scans = new long[2];
+  private final long[] hits = new long[2];
+  private final long[] costs = new long[2];
+
+  /**
+   * Get the scanner flags to add for the next frame.
+   * @param now the current time, in milliseconds.
+   * @return {@link Scanner.Flags#SMALLTARGET} if escalated, {@link Scanner.Flags#DEFAULT} otherwise.
+   */
+  public synchronized int getFlags(long now) {
+    if (escalated_since >= 0 && now - escalated_since > escalationBudget) {
+      // budget exhausted: fall back to the default mode.
+      escalated_since = -1;
+      misses = 0;
+    }
+    return (escalated_since >= 0) ? Scanner.Flags.SMALLTARGET : Scanner.Flags.DEFAULT;
+  }
+
+  /**
+   * Records the outcome of a scan.
+   * @param flags the scanner flags used.
+   * @param hit   true if a result was found.
+   * @param score the quality score of the scanned frame.
+   * @param cost  the time spent scanning, in nanoseconds.
+   * @param now   the current time, in milliseconds.
+   */
+  public synchronized void record(int flags, boolean hit, float score, long cost, long now) {
+    int mode = ((flags & Scanner.Flags.SMALLTARGET) != 0) ? Mode.SMALL_TARGET : Mode.DEFAULT;
+    ++scans[mode];
+    costs[mode] += cost;
+    if (hit) {
+      ++hits[mode];
+      misses = 0;
+      escalated_since = -1;
+    }
+    else if (escalated_since < 0 && score >= minQualityScore &&
+             ++misses >= escalateAfterMisses) {
+      misses = 0;
+      escalated_since = now;
+    }
+  }
+
+  /**
+   * Goes back to the default mode, e.g when the scanned scene changes entirely.
+   */
+  public synchronized void reset() {
+    misses = 0;
+    escalated_since = -1;
+  }
+
+  /**
+   * Get the number of frames scanned in a mode.
+   * @param mode the mode among {@link Mode} flags.
+   * @return the number of scans.
+   */
+  public synchronized long getScanCount(int mode) {
+    return scans[mode];
+  }
+
+  /**
+   * Get the number of results found in a mode.
+   * @param mode the mode among {@link Mode} flags.
+   * @return the number of hits.
+   */
+  public synchronized long getHitCount(int mode) {
+    return hits[mode];
+  }
+
+  /**
+   * Get the hit rate of a mode.
+   * @param mode the mode among {@link Mode} flags.
+   * @return the ratio of scans that found a result, 0 if none was performed.
+   */
+  public synchronized float getHitRate(int mode) {
+    return (scans[mode] > 0) ? (float)hits[mode]/scans[mode] : 0;
+  }
+
+  /**
+   * Get the average time spent scanning a frame in a mode.
+   * @param mode the mode among {@link Mode} flags.
+   * @return the average cost in milliseconds, 0 if no scan was performed.
+   */
+  public synchronized float getAverageCost(int mode) {
+    return (scans[mode] > 0) ? costs[mode]/(scans[mode]*1e6f) : 0;
+  }
+}
@@ -23,16 +23,36 @@
 
 package com.moodstocks.android;
 
+import java.io.Closeable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
+import android.util.Log;
 
 import com.moodstocks.android.core.Loader;
 import com.moodstocks.android.core.OrientationListener.Orientation;
+import com.moodstocks.android.core.YuvConverter;
 
 /**
  *  Image class used as an input for the Moodstocks SDK.
+ *  <p>
+ *  An Image holds native memory, which must be freed by calling {@link #close()}
+ *  as soon as the Image is not needed anymore. Images that are garbage collected
+ *  without having been closed are freed the next time an Image is created, and
+ *  can be tracked down using {@link #setLeakTracking(boolean)}.
  */
-public class Image {
+public class Image implements Closeable {
 
   /**
    * Specifies the color format and encoding for each pixel in the image.
@@ -93,12 +113,44 @@ public class Image {
   }
 
   private int ptr = 0;
-  private int counter = 0;
+  /* size and format, used by the ImagePool */
+  int width = 0;
+  int height = 0;
+  int format = PixelFormat.NV21;
+  /* the creator reference, released by close(), plus one per retain() */
+  private final AtomicInteger counter = new AtomicInteger(1);
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private Cleanup cleanup = null;
+
+  /* native Images not destroyed yet, and the queue notifying the collected ones */
+  private static final Set<Cleanup> cleanups = Collections.synchronizedSet(new HashSet<Cleanup>());
+  private static final ReferenceQueue<Image> collected = new ReferenceQueue<Image>();
+  private static volatile boolean track_leaks = false;
 
   static {
     Loader.load();
   }
 
+  /**
+   * Safety net freeing the native Image once its Java counterpart has been
+   * garbage collected without being closed, without relying on finalization.
+   */
+  private static final class Cleanup extends PhantomReference<Image> {
+    private volatile int ptr;
+    private final Throwable site;
+
+    private Cleanup(Image img, int ptr, Throwable site) {
+      super(img, collected);
+      this.ptr = ptr;
+      this.site = site;
+    }
+
+    /* destroys the native Image through a Java shell pointing to it */
+    private void free() {
+      new Image(ptr).destruct();
+    }
+  }
+
   /**
    * Constructor.
    * <p>
@@ -113,6 +165,126 @@ public class Image {
   public Image(byte[] data, int w, int h, int bpr, int orientation) {
     /* NV21 is the default Android format */
     int fmt = PixelFormat.NV21;
+    this.width = w;
+    this.height = h;
+    purge();
+    try {
+      initialize(data, w, h, bpr, fmt, toExif(orientation));
+    } catch (MoodstocksError e) {
+      e.log();
+    }
+    track();
+  }
+
+  /**
+   * Constructor, from a {@link ByteBuffer} such as an {@link android.media.ImageReader}
+   * plane or a memory-mapped file.
+   * <p>
+   * The buffer content is used in place, without any copy, if it is backed by an
+   * accessible array starting at {@code offset} and if its pixels are not interleaved
+   * with other data. Otherwise, e.g for direct buffers, the rows are read in a single
+   * pass into a new array. The buffer position and limit are left unchanged.
+   * @param buffer        The buffer holding the image bytes.
+   * @param offset        The position of the first image byte in the buffer.
+   * @param w             The image width
+   * @param h             The image height
+   * @param rowStride     The number of bytes between the start of two consecutive rows.
+   * @param pixelStride   The number of bytes between two consecutive pixels of a row:
+   *                      4 for packed {@link PixelFormat#RGB32} images, 1 for packed
+   *                      {@link PixelFormat#GRAY8} images, and necessarily 1 for
+   *                      {@link PixelFormat#NV21} images.
+   * @param format        The image bytes format, among {@link Image.PixelFormat} flags.
+   *                      {@link PixelFormat#NV21} images must have their interleaved chroma
+   *                      rows right after the luminance rows, using the same row stride.
+   * @param orientation   The image orientation, among the {@link com.moodstocks.android.core.OrientationListener.Orientation} flags.
+   * @throws IllegalArgumentException if the strides or format are invalid, or if the
+   *         buffer is too small.
+   */
+  public Image(ByteBuffer buffer, int offset, int w, int h, int rowStride, int pixelStride,
+               int format, int orientation) {
+    if (format < 0 || format >= PixelFormat.NB)
+      throw new IllegalArgumentException("Invalid pixel format: " + format);
+    int bpp = (format == PixelFormat.RGB32) ? 4 : 1;
+    if (pixelStride < bpp || (format == PixelFormat.NV21 && pixelStride != 1))
+      throw new IllegalArgumentException("Invalid pixel stride: " + pixelStride);
+    if (w <= 0 || h <= 0 || rowStride < (w-1)*pixelStride + bpp)
+      throw new IllegalArgumentException("Invalid image size or row stride");
+    int rows = (format == PixelFormat.NV21) ? h + (h+1)/2 : h;
+    // the last row is not necessarily padded up to the row stride.
+    int size = (rows-1)*rowStride + (w-1)*pixelStride + bpp;
+    if (offset < 0 || offset + size > buffer.limit())
+      throw new IllegalArgumentException("Buffer too small");
+
+    byte[] data;
+    int bpr;
+    if (pixelStride == bpp && buffer.hasArray() && buffer.arrayOffset() + offset == 0) {
+      // zero-copy: the backing array is the image.
+      data = buffer.array();
+      bpr = rowStride;
+    }
+    else if (pixelStride == bpp) {
+      // rows are kept padded so that they are read in a single bulk copy.
+      data = new byte[rows*rowStride];
+      ByteBuffer src = buffer.duplicate();
+      src.position(offset);
+      src.get(data, 0, size);
+      bpr = rowStride;
+    }
+    else {
+      data = new byte[rows*w*bpp];
+      pack(buffer, offset, w, rows, rowStride, pixelStride, bpp, data);
+      bpr = w*bpp;
+    }
+    this.width = w;
+    this.height = h;
+    this.format = format;
+    purge();
+    try {
+      initialize(data, w, h, bpr, format, toExif(orientation));
+    } catch (MoodstocksError e) {
+      e.log();
+    }
+    track();
+  }
+
+  /**
+   * Constructor of a Java shell around an existing native Image, only used
+   * to destroy it.
+   */
+  private Image(int ptr) {
+    this.ptr = ptr;
+  }
+
+  /**
+   * Packs pixels interleaved with other data, row by row.
+   */
+  private static void pack(ByteBuffer buffer, int offset, int w, int rows, int rowStride,
+                           int pixelStride, int bpp, byte[] out) {
+    int o = 0;
+    if (bpp == 1) {
+      for (int y = 0; y < rows; ++y) {
+        int p = offset + y*rowStride;
+        for (int x = 0; x < w; ++x, p += pixelStride)
+          out[o++] = buffer.get(p);
+      }
+    }
+    else {
+      ByteBuffer src = buffer.duplicate();
+      for (int y = 0; y < rows; ++y) {
+        int p = offset + y*rowStride;
+        for (int x = 0; x < w; ++x, p += pixelStride, o += bpp) {
+          src.position(p);
+          src.get(out, o, bpp);
+        }
+      }
+    }
+  }
+
+  /**
+   * Converts an {@link com.moodstocks.android.core.OrientationListener.Orientation} flag
+   * into the matching {@link ExifOrientation} flag.
+   */
+  private static int toExif(int orientation) {
     int ori = 0;
     switch(orientation) {
     case Orientation.UP: ori = ExifOrientation.LEFT_BOTTOM;
@@ -126,32 +298,162 @@ public class Image {
     case Orientation.NONE: ori = ExifOrientation.UNDEFINED;
     break;
     }
-    try {
-      initialize(data, w, h, bpr, fmt, ori);
-    } catch (MoodstocksError e) {
-      e.log();
-    }
+    return ori;
   }
 
   /** Reference counting +1 function.
    * <p>
    * Any function taking an Image as an argument must call retain()
    * on it at at the beginning and call release() on it once it's
-   * not needed anymore.
+   * not needed anymore. This method is thread-safe.
+   * @throws IllegalStateException if the Image has already been destroyed.
    */
   public void retain() {
-    this.counter++;
+    int c;
+    do {
+      c = counter.get();
+      if (c <= 0)
+        throw new IllegalStateException("Image already destroyed");
+    } while (!counter.compareAndSet(c, c+1));
   }
 
   /** Reference counting -1 function.
    * <p>
    * Any function taking an Image as an argument must call retain()
    * on it at at the beginning and call release() on it once it's
-   * not needed anymore.
+   * not needed anymore. This method is thread-safe.
    */
   public void release() {
-    this.counter--;
-    if (counter <= 0) this.destruct();
+    if (counter.decrementAndGet() == 0)
+      destroy();
+  }
+
+  /**
+   * Releases the reference held by the creator of the Image.
+   * <p>
+   * The native Image is destroyed right away, unless it has been retained
+   * by a pending operation, in which case it is destroyed as soon as this
+   * operation releases it. Calling this method more than once has no effect.
+   */
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true))
+      release();
+  }
+
+  /**
+   * Get the number of native Images currently allocated, i.e neither closed
+   * nor garbage collected yet.
+   * @return the number of live native Images.
+   */
+  public static int getLiveCount() {
+    purge();
+    return cleanups.size();
+  }
+
+  /**
+   * Enables or disables the leak tracking, for debugging purposes.
+   * <p>
+   * When enabled, the allocation site of each new Image is recorded: a
+   * warning is logged with this allocation site whenever an Image is
+   * garbage collected without having been closed, and {@link #logLiveImages()}
+   * can be used to find out where the live Images were allocated.
+   * As it records a stack trace per Image, it should not be enabled in production.
+   * @param enabled true to enable the leak tracking, false to disable it.
+   */
+  public static void setLeakTracking(boolean enabled) {
+    track_leaks = enabled;
+  }
+
+  /**
+   * Logs the number of live native Images, and the allocation site of
+   * those created while the leak tracking was enabled.
+   */
+  public static void logLiveImages() {
+    purge();
+    List<Cleanup> live;
+    synchronized (cleanups) {
+      live = new ArrayList<Cleanup>(cleanups);
+    }
+    Log.d("Moodstocks SDK", live.size() + " live Image(s)");
+    for (Cleanup c : live) {
+      if (c.site != null)
+        Log.d("Moodstocks SDK", "Live Image", c.site);
+    }
+  }
+
+  /**
+   * Registers the native Image to the safety net.
+   */
+  private void track() {
+    if (ptr == 0)
+      return;
+    cleanup = new Cleanup(this, ptr, track_leaks ? new Throwable("Image allocated here") : null);
+    cleanups.add(cleanup);
+  }
+
+  /**
+   * Points a live Image to new image bytes, keeping the Java object and its
+   * safety net registration. The native image is destroyed and initialized
+   * again. Used by the {@link ImagePool}.
+   * @param data          The image bytes.
+   * @param bpr           The image stride: number of bytes per row.
+   * @param orientation   The image orientation, among the {@link com.moodstocks.android.core.OrientationListener.Orientation} flags.
+   * @return false if the Image could not be initialized, in which case it is destroyed.
+   */
+  boolean reset(byte[] data, int bpr, int orientation) {
+    Cleanup c = cleanup;
+    if (c == null || !cleanups.contains(c))
+      return false;
+    this.destruct();
+    ptr = 0;
+    try {
+      initialize(data, width, height, bpr, format, toExif(orientation));
+    } catch (MoodstocksError e) {
+      e.log();
+    }
+    if (ptr == 0) {
+      cleanups.remove(c);
+      c.clear();
+      counter.set(0);
+      return false;
+    }
+    c.ptr = ptr;
+    return true;
+  }
+
+  /**
+   * Checks whether this Image is only referenced by its creator, and can thus
+   * be reused by an {@link ImagePool}.
+   */
+  boolean isReusable() {
+    return (!closed.get() && counter.get() == 1 && ptr != 0);
+  }
+
+  /**
+   * Destroys the native Image, once.
+   */
+  private void destroy() {
+    Cleanup c = cleanup;
+    if (c != null && cleanups.remove(c)) {
+      c.clear();
+      this.destruct();
+    }
+  }
+
+  /**
+   * Frees the native Images whose Java counterpart has been garbage collected.
+   */
+  private static void purge() {
+    Reference<? extends Image> r;
+    while ((r = collected.poll()) != null) {
+      Cleanup c = (Cleanup) r;
+      if (cleanups.remove(c)) {
+        if (c.site != null)
+          Log.w("Moodstocks SDK", "Image garbage collected without being closed", c.site);
+        c.free();
+      }
+    }
   }
 
   /**
@@ -163,7 +465,15 @@ public class Image {
    * @return the framebuffer as a bitmap.
    */
   public static Bitmap bufferToBitmap(byte[] data, int w, int h, int stride) {
-    int[] argb = nv21ToARGB(data, w, h, stride);
+    int[] argb;
+    if (Loader.isCompatible()) {
+      argb = nv21ToARGB(data, w, h, stride);
+    }
+    else {
+      // unsupported architecture: use the pure Java conversion.
+      argb = new int[w*h];
+      YuvConverter.nv21ToARGB(data, w, h, stride, argb);
+    }
     return Bitmap.createBitmap(argb, w, h, Bitmap.Config.ARGB_8888);
   }
 
@@ -212,17 +522,6 @@ public class Image {
    */
   private native void destruct();
 
-  /**
-   * We override finalize() to ensure that
-   * the garbage collector also destroys
-   * the native Image object
-   */
-  @Override
-  protected void finalize() throws Throwable {
-    this.destruct();
-    super.finalize();
-  }
-
   /**
    * Native method to create an Image.
    * @param data      The image bytes
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of {@link Image} objects, keyed by size and pixel format, used to scan
+ * a stream of camera frames without creating a new Image for each of them.
+ * <p>
+ * A pooled Image is pointed to the new frame bytes in place: only the Java
+ * object and its registration to the leak safety net are kept. The native
+ * image is still destroyed and re-initialized for each frame, as the native
+ * library has no way to update an image: the pool saves Java allocations,
+ * not native ones. {@link #getReusedCount()} and {@link #getCreatedCount()}
+ * count the Java objects only.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ImagePool {
+
+  /* free Images, in free[0] to free[size-1] */
+  private final Image[] free;
+  private int size = 0;
+  private final AtomicLong reused = new AtomicLong(0);
+  private final AtomicLong created = new AtomicLong(0);
+
+  /**
+   * Constructor.
+   * @param capacity the maximum number of Images kept in the pool.
+   */
+  public ImagePool(int capacity) {
+    this.free = new Image[capacity];
+  }
+
+  /**
+   * Get an NV21 {@link Image} from the pool, or a new one if the pool has none
+   * of this size.
+   * <p>
+   * The returned Image must be given back using {@link #recycle(Image)} instead
+   * of being closed.
+   * @param data          The image bytes.
+   * @param w             The image width
+   * @param h             The image height
+   * @param bpr           The image stride: number of bytes per row.
+   * @param orientation   The image orientation, among the {@link com.moodstocks.android.core.OrientationListener.Orientation} flags.
+   * @return the {@link Image}.
+   */
+  public Image obtain(byte[] data, int w, int h, int bpr, int orientation) {
+    Image img = null;
+    synchronized (this) {
+      // the pool is small: a linear scan is cheaper than any keyed lookup.
+      for (int i = size-1; i >= 0; --i) {
+        Image f = free[i];
+        if (f.width == w && f.height == h && f.format == Image.PixelFormat.NV21) {
+          img = f;
+          free[i] = free[--size];
+          free[size] = null;
+          break;
+        }
+      }
+    }
+    if (img != null && img.reset(data, bpr, orientation)) {
+      reused.incrementAndGet();
+      return img;
+    }
+    created.incrementAndGet();
+    return new Image(data, w, h, bpr, orientation);
+  }
+
+  /**
+   * Gives an {@link Image} obtained from {@link #obtain(byte[], int, int, int, int)}
+   * back to the pool.
+   * <p>
+   * If the Image is still retained by another operation, or if the pool is full,
+   * it is closed instead.
+   * @param img the {@link Image} to recycle.
+   */
+  public void recycle(Image img) {
+    if (img.isReusable()) {
+      synchronized (this) {
+        if (size < free.length) {
+          free[size++] = img;
+          return;
+        }
+      }
+    }
+    img.close();
+  }
+
+  /**
+   * Closes all the pooled Images.
+   */
+  public void clear() {
+    Image[] all;
+    synchronized (this) {
+      all = new Image[size];
+      System.arraycopy(free, 0, all, 0, size);
+      for (int i = 0; i < size; ++i)
+        free[i] = null;
+      size = 0;
+    }
+    for (Image img : all)
+      img.close();
+  }
+
+  /**
+   * Get the number of Image objects reused from the pool. Their native image
+   * was nonetheless re-initialized.
+   * @return the number of reused Image objects.
+   */
+  public long getReusedCount() {
+    return reused.get();
+  }
+
+  /**
+   * Get the number of Image objects that had to be created because the pool had
+   * none of the requested size.
+   * @return the number of created Image objects.
+   */
+  public long getCreatedCount() {
+    return created.get();
+  }
+}
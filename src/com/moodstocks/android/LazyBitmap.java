@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android;
+
+import android.graphics.Bitmap;
+
+/**
+ * Query frame kept by a {@link Result}, converted into a {@link Bitmap} only
+ * the first time it is requested.
+ * <p>
+ * This class is thread-safe.
+ */
+class LazyBitmap {
+
+  private byte[] data;
+  private final int width;
+  private final int height;
+  private final int stride;
+  private Bitmap bitmap = null;
+
+  /**
+   * Constructor.
+   * @param data    the NV21 frame, which is kept as is: it must not be modified afterwards.
+   * @param w       the frame width
+   * @param h       the frame height
+   * @param stride  the frame stride
+   */
+  LazyBitmap(byte[] data, int w, int h, int stride) {
+    this.data = data;
+    this.width = w;
+    this.height = h;
+    this.stride = stride;
+  }
+
+  /**
+   * Get the frame as a {@link Bitmap}, converting it if needed.
+   * @return the {@link Bitmap}.
+   */
+  synchronized Bitmap get() {
+    if (bitmap == null && data != null) {
+      bitmap = Image.bufferToBitmap(data, width, height, stride);
+      // the frame is not needed anymore.
+      data = null;
+    }
+    return bitmap;
+  }
+}
@@ -23,6 +23,8 @@
 
 package com.moodstocks.android;
 
+import java.util.Arrays;
+
 import com.moodstocks.android.core.Loader;
 import com.moodstocks.android.core.OrientationListener;
 
@@ -91,6 +93,7 @@ public class Result {
   private float[] homography  = null;
   private int[]   dimensions  = null;
   private Bitmap  image       = null;
+  private LazyBitmap source   = null;
   private int     orientation = Image.ExifOrientation.UNDEFINED;
 
   /**
@@ -162,36 +165,25 @@ public class Result {
    */
   public float[] getOrientedCorners(Context c) {
     int r = ((WindowManager) c.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay().getRotation();
-    float[] result = null;
-    if (this.corners != null) {
-      switch (r) {
-      case Surface.ROTATION_0:
-        result = new float[8];
-        for (int i = 0; i < 4; ++i) {
-          result[2*i]   = -this.corners[2*i+1];
-          result[2*i+1] = this.corners[2*i];
-        }
-        break;
-      case Surface.ROTATION_180:
-        result = new float[8];
-        for (int i = 0; i < 4; ++i) {
-          result[2*i]   = this.corners[2*i+1];
-          result[2*i+1] = -this.corners[2*i];
-        }
-        break;
-      case Surface.ROTATION_270:
-        result = new float[8];
-        for (int i = 0; i < 8; ++i) {
-          result[i] = -this.corners[i];
-        }
-        break;
-      case Surface.ROTATION_90:
-      default:
-        result = this.corners.clone();
-        break;
-      }
-    }
-    return result;
+    if (this.corners == null)
+      return null;
+    return getOrientedCorners(r, new float[8]);
+  }
+
+  /**
+   * Similar to {@link #getOrientedCorners(Context)}, but using a known screen rotation
+   * and writing into a caller-supplied array, so that it can be called on every frame
+   * without allocating.
+   * @param rotation  the screen rotation, among the {@link Surface} {@code ROTATION_*} values.
+   * @param out       the array of at least 8 elements receiving the coordinates.
+   * @return  {@code out}, or NULL if the corners are not available.
+   */
+  public float[] getOrientedCorners(int rotation, float[] out) {
+    if (this.corners == null)
+      return null;
+    for (int i = 0; i < 4; ++i)
+      orient(this.corners[2*i], this.corners[2*i+1], rotation, out, 2*i);
+    return out;
   }
 
   /**
@@ -227,6 +219,78 @@ public class Result {
     return null;
   }
 
+  /**
+   * Similar to {@link #getHomography()}, but writing into a caller-supplied {@link Matrix}.
+   * @param out the {@link Matrix} receiving the homography.
+   * @return  false if the homography is not available, in which case {@code out}
+   *          is left unchanged.
+   */
+  public boolean getHomography(Matrix out) {
+    if (this.homography == null)
+      return false;
+    out.setValues(this.homography);
+    return true;
+  }
+
+  /**
+   * Projects points of the matched reference image into the query frame, using the
+   * homography, in a single pass and without allocating.
+   * <p>
+   * The points coordinates use the conventions of {@link #getHomography()}: they are in
+   * the [-1, 1] range in both the reference image and the query frame. The projected
+   * points are then re-oriented like {@link #getOrientedCorners(int, float[])} does.
+   * <p>
+   * {@code src} and {@code dst} can be the same array.
+   * @param src       the points, as [x1, y1, x2, ...]
+   * @param srcOffset the index of the first point coordinate in {@code src}
+   * @param dst       the array receiving the projected points, as [x1, y1, x2, ...]
+   * @param dstOffset the index of the first point coordinate in {@code dst}
+   * @param count     the number of points
+   * @param rotation  the screen rotation, among the {@link Surface} {@code ROTATION_*} values.
+   * @return  false if the homography is not available.
+   */
+  public boolean projectPoints(float[] src, int srcOffset, float[] dst, int dstOffset,
+                               int count, int rotation) {
+    float[] h = this.homography;
+    if (h == null)
+      return false;
+    for (int i = 0; i < count; ++i) {
+      float x = src[srcOffset + 2*i];
+      float y = src[srcOffset + 2*i+1];
+      float w = h[6]*x + h[7]*y + h[8];
+      if (w == 0)
+        w = Float.MIN_VALUE;
+      orient((h[0]*x + h[1]*y + h[2])/w, (h[3]*x + h[4]*y + h[5])/w,
+             rotation, dst, dstOffset + 2*i);
+    }
+    return true;
+  }
+
+  /**
+   * Re-orients a query frame point to fit a screen rotation.
+   */
+  private static void orient(float x, float y, int rotation, float[] out, int o) {
+    switch (rotation) {
+    case Surface.ROTATION_0:
+      out[o]   = -y;
+      out[o+1] = x;
+      break;
+    case Surface.ROTATION_180:
+      out[o]   = y;
+      out[o+1] = -x;
+      break;
+    case Surface.ROTATION_270:
+      out[o]   = -x;
+      out[o+1] = -y;
+      break;
+    case Surface.ROTATION_90:
+    default:
+      out[o]   = x;
+      out[o+1] = y;
+      break;
+    }
+  }
+
   /**
    * Get the dimensions of the matched reference image.
    * <p>
@@ -251,6 +315,25 @@ public class Result {
     this.orientation = ori;
   }
 
+  /**
+   * Sets the query image as a frame converted into a {@link Bitmap} on first access.
+   * @param src the frame
+   * @param ori the orientation flag among {@link com.moodstocks.android.core.OrientationListener.Orientation}
+   */
+  void setImage(LazyBitmap src, int ori) {
+    this.source = src;
+    this.orientation = ori;
+  }
+
+  /**
+   * Checks whether another result has the same corners and homography as this one.
+   * @param r the other result.
+   * @return true if both the corners and the homography are equal, or both missing.
+   */
+  boolean hasSameGeometry(Result r) {
+    return (Arrays.equals(this.corners, r.corners) && Arrays.equals(this.homography, r.homography));
+  }
+
   /**
    * Get the query image corresponding to this result, as physically provided by the camera,
    * i.e not re-oriented.
@@ -260,6 +343,8 @@ public class Result {
    * @return the query image as a {@link Bitmap} object.
    */
   public Bitmap getImage() {
+    if (this.image == null && this.source != null)
+      this.image = this.source.get();
     return this.image;
   }
 
@@ -273,7 +358,7 @@ public class Result {
    * @see ScannerSession#useDeviceOrientation
    */
   public Bitmap getOrientedImage() {
-    if (this.image == null)
+    if (this.getImage() == null)
       return null;
     float d = 0;
     switch(this.orientation) {
@@ -320,7 +405,7 @@ public class Result {
    * @return the warped query frame at the best possible resolution.
    */
   public Bitmap getWarped() {
-    if (this.image == null || this.dimensions == null || this.homography == null)
+    if (this.dimensions == null || this.homography == null || this.getImage() == null)
       return null;
     return Image.warp(this.image, this.getHomography(), this.dimensions[0], this.dimensions[1]);
   }
@@ -336,7 +421,7 @@ public class Result {
    * @return the warped query frame, at the specified size.
    */
   public Bitmap getWarped(float scale) {
-    if (this.image == null || this.dimensions == null || this.homography == null)
+    if (this.dimensions == null || this.homography == null || this.getImage() == null)
       return null;
     return Image.warp(this.image, this.getHomography(), this.dimensions[0], this.dimensions[1], scale);
   }
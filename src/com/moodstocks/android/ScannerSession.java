@@ -26,17 +26,20 @@ package com.moodstocks.android;
 import java.lang.ref.WeakReference;
 
 import com.moodstocks.android.core.CameraManager;
+import com.moodstocks.android.core.FrameSelector;
+import com.moodstocks.android.core.FrameSource;
+import com.moodstocks.android.core.MotionDetector;
 import com.moodstocks.android.core.OrientationListener;
 import com.moodstocks.android.core.CameraManager.CameraError;
 
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
-import android.graphics.Bitmap;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.view.SurfaceView;
 
 /**
@@ -53,18 +56,25 @@ import android.view.SurfaceView;
  * </li>
  * </ul>
  */
-public class ScannerSession implements CameraManager.Listener {
+public class ScannerSession implements CameraManager.Listener, MotionDetector.Listener {
   private Activity parent;
   private Scanner scanner = null;
   private WeakReference<Listener> listener;
   private WorkerThread worker;
   private SessionHandler handler;
+  private MotionDetector motion;
+  private FrameSource camera;
+  private final FrameSelector selector = new FrameSelector();
+  private final ImagePool pool = new ImagePool(2);
+  private final AdaptiveScanPolicy policy = new AdaptiveScanPolicy();
 
   private boolean front_facing = false;
   private int frame_width;
   private int frame_height;
   private boolean running = false;
   private boolean snap = false;
+  private boolean snap_sent = false;
+  private boolean keep_lock = false;
 
   /** default options: cache image recognition only. */
   protected int options = Result.Type.IMAGE;
@@ -104,6 +114,43 @@ public class ScannerSession implements CameraManager.Listener {
    */
   public boolean smallTargetSupport = false;
 
+  /**
+   * If true, the session scans in the default mode and temporarily switches to the
+   * small target mode when the default mode keeps missing on good quality frames,
+   * as decided by the {@link AdaptiveScanPolicy} returned by {@link #getScanPolicy()}.
+   * <p>
+   * Ignored if {@link #smallTargetSupport} is true.
+   * By default, this value is set to `false`.
+   */
+  public boolean adaptiveSmallTarget = false;
+
+  /**
+   * Delay in milliseconds after which the session switches to a low frame rate
+   * when the device has not moved and the camera kept showing the same scene.
+   * The session also switches to this idle mode as soon as the device lies
+   * face-down. Full rate scanning resumes as soon as the device moves again.
+   * <p>
+   * Set this value to 0 to disable the idle mode.
+   * By default, this value is set to 5000.
+   */
+  public long idleDelay = 5000;
+
+  /**
+   * Interval in milliseconds between two processed frames while the session is idle.
+   * <p>
+   * By default, this value is set to 1000.
+   */
+  public long idleFrameInterval = 1000;
+
+  /**
+   * Delay in milliseconds after which the camera is released once the session
+   * has been suspended using {@link #suspend()}.
+   * <p>
+   * Set this value to a negative value to keep the camera opened while suspended.
+   * By default, this value is set to 3000.
+   */
+  public long cameraReleaseDelay = 3000;
+
   /**
    * Interface that must be implemented to receive callbacks from the ScannerSession.
    * <p>
@@ -135,9 +182,13 @@ public class ScannerSession implements CameraManager.Listener {
     this.parent = parent;
     this.worker = new WorkerThread();
     this.handler = new SessionHandler(this);
+    this.motion = new MotionDetector(parent.getApplicationContext(), this);
+    this.camera = CameraManager.getFrameSource(parent);
+    camera.setChromaRequired((extras & Result.Extra.IMAGE) != 0);
     OrientationListener.init(parent);
     OrientationListener.get().enable();
-    CameraManager.get().start(parent, this, preview);
+    motion.enable();
+    camera.start(parent, this, preview);
     worker.start();
   }
 
@@ -158,6 +209,8 @@ public class ScannerSession implements CameraManager.Listener {
    */
   public void setExtras(int extras) {
     this.extras = extras;
+    // result images are built from the full frames.
+    camera.setChromaRequired((extras & Result.Extra.IMAGE) != 0);
   }
 
   /**
@@ -166,9 +219,11 @@ public class ScannerSession implements CameraManager.Listener {
    */
   public boolean resume() {
     if (!running) {
-      worker.reset();
+      if (!keep_lock)
+        worker.reset();
+      keep_lock = false;
       running = true;
-      CameraManager.get().requestNewFrame();
+      camera.requestNewFrame();
       return true;
     }
     return false;
@@ -181,11 +236,62 @@ public class ScannerSession implements CameraManager.Listener {
   public boolean pause() {
     if (running) {
       running = false;
+      handler.removeMessages(MsgCode.NEXT_FRAME);
       return true;
     }
     return false;
   }
 
+  /**
+   * Re-attaches the session to a new {@link Activity} and preview surface.
+   * <p>
+   * Use this method to keep a session alive across configuration changes, e.g
+   * from a retained Fragment: the camera, the
+   * worker thread and the current locking state are kept, and only the camera
+   * preview is restarted on the new surface.
+   * @param parent the new caller {@link Activity}
+   * @param preview the new {@link SurfaceView} on which to display the camera preview.
+   */
+  public void attach(Activity parent, SurfaceView preview) {
+    this.parent = parent;
+    this.keep_lock = true;
+    camera.attach(parent, preview);
+  }
+
+  /**
+   * Suspends the session while its preview is not visible, e.g when it is
+   * hosted in a page that was scrolled off-screen.
+   * <p>
+   * Frames processing stops immediately, and the camera is released after
+   * {@link #cameraReleaseDelay} milliseconds unless {@link #restore()} is
+   * called in the meantime.
+   */
+  public void suspend() {
+    pause();
+    cancel();
+    OrientationListener.get().disable();
+    motion.disable();
+    selector.clear();
+    handler.removeMessages(MsgCode.RELEASE_CAMERA);
+    if (cameraReleaseDelay >= 0)
+      handler.sendEmptyMessageDelayed(MsgCode.RELEASE_CAMERA, cameraReleaseDelay);
+  }
+
+  /**
+   * Restores a session suspended using {@link #suspend()}.
+   * <p>
+   * If the camera has been released, it is reopened using the previously
+   * negotiated camera parameters.
+   * @return false if the session was already running.
+   */
+  public boolean restore() {
+    handler.removeMessages(MsgCode.RELEASE_CAMERA);
+    OrientationListener.get().enable();
+    motion.enable();
+    camera.restart();
+    return resume();
+  }
+
   /**
    * Closes the ScannerSession.
    * <p>
@@ -194,13 +300,20 @@ public class ScannerSession implements CameraManager.Listener {
   public void close() {
     pause();
     cancel();
+    handler.removeMessages(MsgCode.RELEASE_CAMERA);
     OrientationListener.get().disable();
-    CameraManager.get().stop();
+    motion.disable();
+    selector.clear();
+    camera.stop();
     finishWorker(500L);
   }
 
   /**
    * Launches a remote image search on the Moodstocks API.
+   * <p>
+   * The sharpest and best exposed of the recently scanned frames is sent right
+   * away. Only if no such frame is available does the session wait for the
+   * autofocus to get a new one.
    * @return false if the operation could not be performed, either because the
    *         session is currently paused, or because a previous call to this
    *         method has not ended yet.
@@ -208,6 +321,12 @@ public class ScannerSession implements CameraManager.Listener {
   public boolean snap() {
     if (running && !snap) {
       snap = true;
+      snap_sent = false;
+      byte[] best = selector.take(SystemClock.elapsedRealtime(), SNAP_MAX_AGE);
+      if (best != null) {
+        snap_sent = true;
+        worker.getHandler().obtainMessage(MsgCode.SNAP, best).sendToTarget();
+      }
       return true;
     }
     return false;
@@ -222,7 +341,7 @@ public class ScannerSession implements CameraManager.Listener {
   public boolean cancel() {
     scanner.apiSearchCancel();
     if (running && snap) {
-      CameraManager.get().requestNewFrame();
+      camera.requestNewFrame();
       snap = false;
       return true;
     }
@@ -230,6 +349,34 @@ public class ScannerSession implements CameraManager.Listener {
     return false;
   }
 
+  /**
+   * Checks whether the session is currently scanning at a low frame rate,
+   * as set by {@link #idleDelay}.
+   * @return true if idle, false otherwise.
+   */
+  public boolean isIdle() {
+    if (idleDelay <= 0 || snap)
+      return false;
+    if (motion.isFaceDown())
+      return true;
+    return (motion.getStillDuration() >= idleDelay &&
+            worker.getStaticDuration() >= idleDelay);
+  }
+
+  /**
+   * Requests the next frame to process, either right now or after
+   * {@link #idleFrameInterval} if the session is idle.
+   */
+  private void requestFrame() {
+    if (isIdle()) {
+      if (!handler.hasMessages(MsgCode.NEXT_FRAME))
+        handler.sendEmptyMessageDelayed(MsgCode.NEXT_FRAME, idleFrameInterval);
+    }
+    else {
+      camera.requestNewFrame();
+    }
+  }
+
   /**
    * Closes the worker thread.
    * @param t the time in milliseconds allowed for the thread to end.
@@ -243,6 +390,24 @@ public class ScannerSession implements CameraManager.Listener {
     }
   }
 
+  /**
+   * Get the policy used when {@link #adaptiveSmallTarget} is enabled, e.g to tune
+   * it or to check its per-mode counters.
+   * @return the {@link AdaptiveScanPolicy}.
+   */
+  public AdaptiveScanPolicy getScanPolicy() {
+    return policy;
+  }
+
+  /**
+   * Get the pool of {@link Image}s used to scan the camera frames, e.g to
+   * check how many Image objects were reused.
+   * @return the {@link ImagePool}.
+   */
+  public ImagePool getImagePool() {
+    return pool;
+  }
+
   /**
    * <i>{@link com.moodstocks.android.core.CameraManager.Listener} implementation used to receive information on the camera in use.</i>
    */
@@ -279,19 +444,36 @@ public class ScannerSession implements CameraManager.Listener {
     builder.show();
   }
 
+  /**
+   * <i>{@link com.moodstocks.android.core.MotionDetector.Listener} implementation used to leave the idle mode.</i>
+   */
+  @Override
+  public void onMotionStarted() {
+    if (handler.hasMessages(MsgCode.NEXT_FRAME)) {
+      handler.removeMessages(MsgCode.NEXT_FRAME);
+      if (running)
+        camera.requestNewFrame();
+    }
+  }
+
   /**
    * <i>{@link com.moodstocks.android.core.CameraManager.Listener} implementation used to receive the camera frames</i>.
    */
   @Override
-  public void onPreviewFrame(byte[] data, Camera camera) {
+  public void onPreviewFrame(byte[] data, Camera unused) {
     if (running) {
       if (snap) {
-        if (CameraManager.get().isFocussed()) {
+        if (snap_sent) {
+          // a frame is already being searched: a new frame
+          // is requested once the search has ended.
+        }
+        else if (camera.isFocussed()) {
+          snap_sent = true;
           worker.getHandler().obtainMessage(MsgCode.SNAP, data).sendToTarget();
         }
         else {
-          CameraManager.get().requestFocus();
-          CameraManager.get().requestNewFrame();
+          camera.requestFocus();
+          camera.requestNewFrame();
         }
       }
       else {
@@ -347,13 +529,24 @@ public class ScannerSession implements CameraManager.Listener {
               l.onApiSearchFailed(error);
             break;
 
+          case MsgCode.NEXT_FRAME:
+            if (session.running)
+              session.camera.requestNewFrame();
+            newFrame = false;
+            break;
+
+          case MsgCode.RELEASE_CAMERA:
+            session.camera.stop();
+            newFrame = false;
+            break;
+
           default:
             break;
 
         }
 
         if (newFrame && session.running)
-          CameraManager.get().requestNewFrame();
+          session.requestFrame();
       }
     }
   }
@@ -367,6 +560,13 @@ public class ScannerSession implements CameraManager.Listener {
     // locking values:
     private Result _result = null;
     private int _losts = 0;
+    // query frame of the last result:
+    private LazyBitmap _image = null;
+    private Result _image_result = null;
+    private int _image_ori;
+    // scene change detection values:
+    private final byte[] _signature = new byte[SIGNATURE_W*SIGNATURE_H];
+    private volatile long _static_since = SystemClock.elapsedRealtime();
 
     @Override
     public void run() {
@@ -382,9 +582,37 @@ public class ScannerSession implements CameraManager.Listener {
     private void reset() {
       _result = null;
       _losts = 0;
+      policy.reset();
+      _image = null;
+      _image_result = null;
+      _static_since = SystemClock.elapsedRealtime();
+    }
+
+    /* Time elapsed since the camera last showed a different scene, in ms. */
+    private long getStaticDuration() {
+      return SystemClock.elapsedRealtime() - _static_since;
+    }
+
+    /* Compares a coarse grid of luminance samples with the one of the
+     * previous frame, and resets the static scene timer if they differ.
+     */
+    private void updateScene(byte[] data) {
+      int diff = 0;
+      int k = 0;
+      for (int j = 0; j < SIGNATURE_H; ++j) {
+        int row = ((2*j+1)*frame_height/(2*SIGNATURE_H))*frame_width;
+        for (int i = 0; i < SIGNATURE_W; ++i, ++k) {
+          byte y = data[row + (2*i+1)*frame_width/(2*SIGNATURE_W)];
+          diff += Math.abs((y & 0xFF) - (_signature[k] & 0xFF));
+          _signature[k] = y;
+        }
+      }
+      if (diff > SCENE_THRESHOLD*SIGNATURE_W*SIGNATURE_H)
+        _static_since = SystemClock.elapsedRealtime();
     }
 
     private void quit() {
+      pool.clear();
       Looper.myLooper().quit();
     }
 
@@ -392,12 +620,27 @@ public class ScannerSession implements CameraManager.Listener {
       Result result = null;
       MoodstocksError error = null;
       int ori = OrientationListener.Orientation.UP;
+      if (idleDelay > 0)
+        updateScene(data);
+      long now = SystemClock.elapsedRealtime();
+      float score = selector.offer(data, frame_width, frame_height, now, SNAP_MAX_AGE);
+      int flags = (noPartialMatching ? Scanner.Flags.NOPARTIAL : 0) |
+                  (smallTargetSupport ? Scanner.Flags.SMALLTARGET : 0);
+      if (adaptiveSmallTarget)
+        flags |= policy.getFlags(now);
       try {
         if (useDeviceOrientation)
           ori = OrientationListener.get().getOrientation();
         if (front_facing)
           ori = (6-ori)%4;
-        result = scan(new Image(data, frame_width, frame_height, frame_width, ori));
+        Image qry = pool.obtain(data, frame_width, frame_height, frame_width, ori);
+        long start = System.nanoTime();
+        try {
+          result = scan(qry, flags);
+        } finally {
+          pool.recycle(qry);
+        }
+        policy.record(flags, result != null, score, System.nanoTime() - start, now);
       } catch (MoodstocksError e) {
         error = e;
       }
@@ -406,8 +649,20 @@ public class ScannerSession implements CameraManager.Listener {
       }
       else {
         if (result != null && (extras & Result.Extra.IMAGE) != 0) {
-          Bitmap bmp = Image.bufferToBitmap(data, frame_width, frame_height, frame_width);
-          result.setImage(bmp, ori);
+          // the frame is only converted if the listener asks for the image. A result
+          // keeps its own frame, matching its geometry, unless it is a locked repeat
+          // of the previous one with the same geometry: their frames are then alike.
+          if (_image == null || ori != _image_ori || !result.equals(_image_result) ||
+              !result.hasSameGeometry(_image_result)) {
+            _image = new LazyBitmap(data.clone(), frame_width, frame_height, frame_width);
+            _image_ori = ori;
+          }
+          _image_result = result;
+          result.setImage(_image, _image_ori);
+        }
+        else if (result == null) {
+          _image = null;
+          _image_result = null;
         }
         handler.obtainMessage(MsgCode.SUCCESS, result).sendToTarget();
       }
@@ -416,13 +671,21 @@ public class ScannerSession implements CameraManager.Listener {
     /* Performs a search in the local cache, as well as
      * barcode decoding, according to the options previously set.
      */
-    private Result scan(Image qry)
+    private Result scan(Image qry, int flags)
         throws MoodstocksError {
 
       qry.retain();
+      try {
+        return process(qry, flags);
+      } finally {
+        qry.release();
+      }
+    }
+
+    private Result process(Image qry, int flags)
+        throws MoodstocksError {
+
       Result result = null;
-      int flags = (noPartialMatching ? Scanner.Flags.NOPARTIAL : 0) |
-                  (smallTargetSupport ? Scanner.Flags.SMALLTARGET : 0);
       //----------
       // LOCKING
       //----------
@@ -513,12 +776,14 @@ public class ScannerSession implements CameraManager.Listener {
       //---------------
       _result = result;
 
-      qry.release();
       return result;
     }
 
     private void snap(byte[] data) {
-      scanner.apiSearch(this, new Image(data, frame_width, frame_height, frame_width, OrientationListener.Orientation.NONE));
+      Image qry = new Image(data, frame_width, frame_height, frame_width, OrientationListener.Orientation.NONE);
+      // the search retains the query until it has completed.
+      scanner.apiSearch(this, qry);
+      qry.close();
     }
 
     @Override
@@ -578,6 +843,14 @@ public class ScannerSession implements CameraManager.Listener {
     }
   }
 
+  /* maximum age in ms of a scanned frame sent by snap() */
+  private static final long SNAP_MAX_AGE = 1000;
+  /* size of the luminance grid used to detect scene changes */
+  private static final int SIGNATURE_W = 16;
+  private static final int SIGNATURE_H = 12;
+  /* mean luminance difference above which the scene is considered changed */
+  private static final int SCENE_THRESHOLD = 8;
+
   /**
    * <i>Internal message passing codes</i>
    */
@@ -590,6 +863,8 @@ public class ScannerSession implements CameraManager.Listener {
     public static final int API_SUCCESS = 5;
     public static final int API_FAILED = 6;
     public static final int API_START = 7;
+    public static final int NEXT_FRAME = 8;
+    public static final int RELEASE_CAMERA = 9;
   }
 
 }
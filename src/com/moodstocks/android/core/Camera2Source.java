@@ -0,0 +1,677 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.moodstocks.android.core.CameraManager.CameraError;
+
+/**
+ * Singleton {@link FrameSource} using the camera2 API, available on Android 5.0+.
+ * <p>
+ * Frames are read from an {@link ImageReader} in the {@code YUV_420_888} format,
+ * at the highest frame rate supported by the camera, into NV21 buffers shared
+ * between the {@link CameraManager.Listener} and the
+ * {@link CameraManager.FrameSubscriber}s. Only the luminance plane is read by
+ * default, as the chroma is not used by the scanner: it is read as well while
+ * there are subscribers, or once {@link #setChromaRequired(boolean)} asked for it.
+ * Frame timestamps are the sensor timestamps.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Source extends Handler implements FrameSource, SurfaceHolder.Callback,
+    ImageReader.OnImageAvailableListener {
+
+  /* maximum frame width or height */
+  private static final int MAX_SIZE = 1280;
+  /* number of images the reader can hold at once */
+  private static final int MAX_IMAGES = 3;
+  /* message code used to deliver a frame on the UI thread */
+  private static final int FRAME_MSG = 1;
+
+  private static Camera2Source instance = null;
+  private CameraManager.Listener listener;
+  private Activity parent;
+  private SurfaceView preview_view;
+  private SurfaceHolder preview_holder;
+  private HandlerThread thread;
+  private Handler background;
+  private CameraDevice device;
+  private CameraCaptureSession session;
+  private ImageReader reader;
+  private CaptureRequest.Builder request;
+  private CameraCharacteristics characteristics;
+
+  private String camera_id;
+  private boolean front_facing = false;
+  private int af_mode = CaptureRequest.CONTROL_AF_MODE_OFF;
+  private Range<Integer> fps_range = null;
+  private int sensor_orientation = 0;
+  private int preview_width = 0;
+  private int preview_height = 0;
+  private final FrameDispatcher frames = new FrameDispatcher(this);
+  private boolean streaming = false;
+  /* scratch rows used to interleave the chroma planes, on the background thread */
+  private byte[] u_row = null;
+  private byte[] v_row = null;
+
+  private boolean opening = false;
+  private boolean open_cancelled = false;
+  private boolean frame_requested = false;
+  private volatile boolean chroma_required = false;
+  private volatile boolean focussed = false;
+  private volatile long open_time = 0;
+  private volatile long startup_time = -1;
+
+  private Camera2Source() {
+    super(Looper.getMainLooper());
+  }
+
+  /**
+   * Singleton accessor.
+   * @return  the Camera2Source singleton
+   */
+  public static Camera2Source get() {
+    if (Camera2Source.instance == null) {
+      synchronized(Camera2Source.class) {
+        if (Camera2Source.instance == null) {
+          Camera2Source.instance = new Camera2Source();
+        }
+      }
+    }
+    return Camera2Source.instance;
+  }
+
+  /**
+   * Checks whether this source can be used on the device.
+   * <p>
+   * Cameras only supporting the {@code LEGACY} hardware level are emulated on top of
+   * the deprecated camera API, which is then better used directly through
+   * {@link CameraManager}.
+   * @param context a valid context.
+   * @return true if the device runs Android 5.0+ and has a non-legacy camera.
+   */
+  public static boolean isSupported(Context context) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+      return false;
+    try {
+      android.hardware.camera2.CameraManager m = getSystemManager(context);
+      String id = selectCamera(m);
+      if (id == null)
+        return false;
+      Integer level = m.getCameraCharacteristics(id)
+                       .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+      return (level != null &&
+              level.intValue() != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void start(Activity parent, CameraManager.Listener l, SurfaceView surface) {
+    frame_requested = false;
+    listener = l;
+    attach(parent, surface);
+  }
+
+  @Override
+  public void attach(Activity parent, SurfaceView surface) {
+    if (preview_holder != null)
+      preview_holder.removeCallback(this);
+    this.parent = parent;
+    preview_view = surface;
+    preview_holder = surface.getHolder();
+    preview_holder.addCallback(this);
+    // the new Activity may have another orientation: pick the frame size again.
+    if (characteristics != null) {
+      int w = preview_width;
+      int h = preview_height;
+      configure(characteristics);
+      if (device != null && (w != preview_width || h != preview_height))
+        listener.onPreviewInfoFound(preview_width, preview_height, front_facing);
+    }
+    // the preview surface must have one of the sizes supported by the camera.
+    if (preview_width > 0)
+      preview_holder.setFixedSize(preview_width, preview_height);
+  }
+
+  @Override
+  public void stop() {
+    // the camera being opened is released as soon as it is available.
+    if (opening)
+      open_cancelled = true;
+    closeSession();
+    if (device != null) {
+      device.close();
+      device = null;
+    }
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+    if (thread != null) {
+      thread.quitSafely();
+      thread = null;
+      background = null;
+    }
+    removeMessages(FRAME_MSG);
+    frames.reset();
+    streaming = false;
+    frame_requested = false;
+    focussed = false;
+  }
+
+  @Override
+  public boolean subscribe(CameraManager.FrameSubscriber s, int maxPending, int interval) {
+    return frames.subscribe(s, maxPending, interval);
+  }
+
+  @Override
+  public boolean unsubscribe(CameraManager.FrameSubscriber s) {
+    return frames.unsubscribe(s);
+  }
+
+  @Override
+  public void setChromaRequired(boolean required) {
+    chroma_required = required;
+  }
+
+  @Override
+  public void restart() {
+    if (preview_holder == null || preview_holder.getSurface() == null ||
+        !preview_holder.getSurface().isValid())
+      return;
+    openCamera();
+  }
+
+  @Override
+  public boolean isOpened() {
+    return (device != null || opening);
+  }
+
+  @Override
+  public long getStartupTime() {
+    return startup_time;
+  }
+
+  @Override
+  public void requestNewFrame() {
+    if (!streaming)
+      frame_requested = true;
+    else
+      frames.requestFrame();
+  }
+
+  @Override
+  public long getFrameTimestamp() {
+    return frames.getHeldTimestamp();
+  }
+
+  @Override
+  public boolean isFocussed() {
+    return (af_mode == CaptureRequest.CONTROL_AF_MODE_OFF || focussed);
+  }
+
+  @Override
+  public void requestFocus() {
+    // continuous autofocus does not need to be triggered.
+    if (session == null || af_mode != CaptureRequest.CONTROL_AF_MODE_AUTO)
+      return;
+    try {
+      request.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
+      session.capture(request.build(), capture_callback, background);
+    } catch (CameraAccessException e) {
+      Log.e("Camera2Source", "ERROR: Could not request autofocus");
+    } finally {
+      request.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+    }
+  }
+
+  private static android.hardware.camera2.CameraManager getSystemManager(Context context) {
+    return (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+  }
+
+  /**
+   * Finds the camera to use: the first back-facing camera, or the first camera if there is none.
+   * @return the camera id, or null if there is no camera.
+   */
+  private static String selectCamera(android.hardware.camera2.CameraManager m)
+      throws CameraAccessException {
+    String[] ids = m.getCameraIdList();
+    for (String id : ids) {
+      Integer facing = m.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+      if (facing != null && facing.intValue() == CameraCharacteristics.LENS_FACING_BACK)
+        return id;
+    }
+    return (ids.length > 0 ? ids[0] : null);
+  }
+
+  /**
+   * Computes the camera settings: the highest frame size among those closest to the ratio
+   * of the preview view as seen by the sensor, the highest frame rate, and the autofocus mode.
+   */
+  private void configure(CameraCharacteristics c) {
+    characteristics = c;
+    Integer facing = c.get(CameraCharacteristics.LENS_FACING);
+    front_facing = (facing != null && facing.intValue() == CameraCharacteristics.LENS_FACING_FRONT);
+    Integer orientation = c.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    sensor_orientation = (orientation != null ? orientation.intValue() : 0);
+    // frame size: the preview surface is scaled to the view once rotated
+    // to the display, so its ratio must be the one of the rotated view.
+    float ratio = getSensorViewRatio();
+    StreamConfigurationMap map = c.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+    float best_err = Float.MAX_VALUE;
+    for (Size s : sizes) {
+      if (s.getWidth() > MAX_SIZE || s.getHeight() > MAX_SIZE) continue;
+      best_err = Math.min(best_err, ratioError(s, ratio));
+    }
+    int best_w = 0;
+    int best_h = 0;
+    for (Size s : sizes) {
+      if (s.getWidth() > MAX_SIZE || s.getHeight() > MAX_SIZE) continue;
+      if (ratioError(s, ratio) <= best_err + 0.01f && s.getWidth() > best_w) {
+        best_w = s.getWidth();
+        best_h = s.getHeight();
+      }
+    }
+    preview_width = best_w;
+    preview_height = best_h;
+    // frame rate
+    fps_range = null;
+    Range<Integer>[] ranges = c.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+    if (ranges != null) {
+      for (Range<Integer> r : ranges) {
+        if (fps_range == null || r.getUpper() > fps_range.getUpper() ||
+            (r.getUpper().equals(fps_range.getUpper()) && r.getLower() > fps_range.getLower()))
+          fps_range = r;
+      }
+    }
+    // autofocus
+    af_mode = CaptureRequest.CONTROL_AF_MODE_OFF;
+    int[] modes = c.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+    if (modes != null) {
+      for (int m : modes) {
+        if (m == CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE) {
+          af_mode = m;
+          break;
+        }
+        if (m == CaptureRequest.CONTROL_AF_MODE_AUTO)
+          af_mode = m;
+      }
+    }
+  }
+
+  /**
+   * Relative error between the ratio of a frame size and the wanted ratio.
+   */
+  private static float ratioError(Size s, float ratio) {
+    return Math.abs((float)s.getWidth()/s.getHeight() - ratio)/ratio;
+  }
+
+  /**
+   * Computes the width/height ratio of the preview view in the sensor coordinates,
+   * i.e swapped if the sensor is rotated by 90 or 270 degrees relatively to the display.
+   * The display size is used if the view is not laid out yet.
+   */
+  private float getSensorViewRatio() {
+    int w = (preview_view != null ? preview_view.getWidth() : 0);
+    int h = (preview_view != null ? preview_view.getHeight() : 0);
+    if (w <= 0 || h <= 0) {
+      DisplayMetrics dm = parent.getResources().getDisplayMetrics();
+      w = dm.widthPixels;
+      h = dm.heightPixels;
+    }
+    int degrees = 0;
+    switch (parent.getWindowManager().getDefaultDisplay().getRotation()) {
+      case Surface.ROTATION_90: degrees = 90; break;
+      case Surface.ROTATION_180: degrees = 180; break;
+      case Surface.ROTATION_270: degrees = 270; break;
+    }
+    int rotation = (front_facing ? (sensor_orientation + degrees) : (sensor_orientation - degrees + 360)) % 360;
+    if (rotation == 90 || rotation == 270)
+      return (float)h/w;
+    return (float)w/h;
+  }
+
+  /**
+   * Opens the camera asynchronously, unless it is already opened.
+   */
+  private void openCamera() {
+    if (opening)
+      open_cancelled = false;
+    if (device != null || opening)
+      return;
+    open_time = SystemClock.elapsedRealtime();
+    try {
+      android.hardware.camera2.CameraManager m = getSystemManager(parent);
+      camera_id = selectCamera(m);
+      if (camera_id == null) {
+        listener.onCameraOpenFailed(CameraError.NO_CAMERA);
+        return;
+      }
+      configure(m.getCameraCharacteristics(camera_id));
+      if (preview_width == 0) {
+        listener.onCameraOpenFailed(CameraError.NO_CAMERA);
+        return;
+      }
+      preview_holder.setFixedSize(preview_width, preview_height);
+      if (thread == null) {
+        thread = new HandlerThread("Camera2Source");
+        thread.start();
+        background = new Handler(thread.getLooper());
+      }
+      opening = true;
+      m.openCamera(camera_id, device_callback, this);
+    } catch (CameraAccessException e) {
+      opening = false;
+      listener.onCameraOpenFailed(CameraError.OPEN_ERROR);
+    } catch (SecurityException e) {
+      opening = false;
+      listener.onCameraOpenFailed(CameraError.OPEN_ERROR);
+    }
+  }
+
+  /**
+   * Creates the capture session, once the camera is opened and the preview
+   * surface has the frames size.
+   */
+  private void startPreview() {
+    Surface surface = preview_holder.getSurface();
+    if (device == null || session != null || surface == null || !surface.isValid())
+      return;
+    android.graphics.Rect frame = preview_holder.getSurfaceFrame();
+    if (frame.width() != preview_width || frame.height() != preview_height)
+      return;
+    if (reader == null || reader.getWidth() != preview_width || reader.getHeight() != preview_height) {
+      if (reader != null)
+        reader.close();
+      reader = ImageReader.newInstance(preview_width, preview_height, ImageFormat.YUV_420_888, MAX_IMAGES);
+      reader.setOnImageAvailableListener(this, background);
+      // buffers of the previous size may still be filled: start over with new ones.
+      if (streaming && frames.isRequested())
+        frame_requested = true;
+      streaming = false;
+    }
+    if (!streaming) {
+      frames.configure(null, preview_width, preview_height);
+      streaming = true;
+      frames.stream();
+      if (frame_requested) {
+        frame_requested = false;
+        frames.requestFrame();
+      }
+    }
+    try {
+      device.createCaptureSession(Arrays.asList(surface, reader.getSurface()), session_callback, this);
+    } catch (CameraAccessException e) {
+      listener.onCameraOpenFailed(CameraError.OPEN_ERROR);
+    }
+  }
+
+  /**
+   * Closes the capture session, keeping the camera opened.
+   */
+  private void closeSession() {
+    if (session != null) {
+      session.close();
+      session = null;
+    }
+    focussed = false;
+  }
+
+  private final CameraDevice.StateCallback device_callback = new CameraDevice.StateCallback() {
+    @Override
+    public void onOpened(CameraDevice camera) {
+      opening = false;
+      if (open_cancelled) {
+        open_cancelled = false;
+        camera.close();
+        return;
+      }
+      device = camera;
+      listener.onPreviewInfoFound(preview_width, preview_height, front_facing);
+      startPreview();
+    }
+
+    @Override
+    public void onDisconnected(CameraDevice camera) {
+      opening = false;
+      camera.close();
+      if (camera == device) {
+        closeSession();
+        device = null;
+      }
+    }
+
+    @Override
+    public void onError(CameraDevice camera, int error) {
+      onDisconnected(camera);
+      open_cancelled = false;
+      listener.onCameraOpenFailed(CameraError.OPEN_ERROR);
+    }
+  };
+
+  private final CameraCaptureSession.StateCallback session_callback = new CameraCaptureSession.StateCallback() {
+    @Override
+    public void onConfigured(CameraCaptureSession s) {
+      if (device == null) {
+        s.close();
+        return;
+      }
+      session = s;
+      try {
+        request = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        request.addTarget(preview_holder.getSurface());
+        request.addTarget(reader.getSurface());
+        request.set(CaptureRequest.CONTROL_AF_MODE, af_mode);
+        if (fps_range != null)
+          request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fps_range);
+        s.setRepeatingRequest(request.build(), capture_callback, background);
+      } catch (CameraAccessException e) {
+        listener.onCameraOpenFailed(CameraError.OPEN_ERROR);
+      }
+    }
+
+    @Override
+    public void onConfigureFailed(CameraCaptureSession s) {
+      listener.onCameraOpenFailed(CameraError.OPEN_ERROR);
+    }
+  };
+
+  private final CameraCaptureSession.CaptureCallback capture_callback = new CameraCaptureSession.CaptureCallback() {
+    @Override
+    public void onCaptureCompleted(CameraCaptureSession s, CaptureRequest r, TotalCaptureResult result) {
+      Integer state = result.get(CaptureResult.CONTROL_AF_STATE);
+      focussed = (state != null &&
+                  (state.intValue() == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED ||
+                   state.intValue() == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED));
+    }
+  };
+
+  /**
+   * <i>Internal callback, called on the background thread.</i>
+   */
+  @Override
+  public void onImageAvailable(ImageReader r) {
+    Image img = r.acquireLatestImage();
+    if (img == null)
+      return;
+    try {
+      if (open_time > 0) {
+        startup_time = SystemClock.elapsedRealtime() - open_time;
+        open_time = 0;
+        Log.d("Camera2Source", "Camera started in " + startup_time + " ms");
+      }
+      // a buffer is only queued while the listener or a subscriber waits for a frame.
+      byte[] out = frames.poll();
+      if (out == null)
+        return;
+      // a buffer of the previous size is not dispatched anymore: it has been replaced.
+      if (out.length != img.getWidth()*img.getHeight()*3/2)
+        return;
+      readLuminance(img, out);
+      if (chroma_required || frames.hasSubscribers())
+        readChroma(img, out);
+      // the timestamp is split into the two message arguments.
+      long t = img.getTimestamp();
+      obtainMessage(FRAME_MSG, (int)(t >>> 32), (int)t, out).sendToTarget();
+    } finally {
+      img.close();
+    }
+  }
+
+  /**
+   * Reads the luminance plane of a {@code YUV_420_888} image, row by row
+   * unless rows are not padded.
+   */
+  private static void readLuminance(Image img, byte[] out) {
+    int w = img.getWidth();
+    int h = img.getHeight();
+    Image.Plane y = img.getPlanes()[0];
+    ByteBuffer buf = y.getBuffer();
+    int stride = y.getRowStride();
+    if (stride == w) {
+      buf.position(0);
+      buf.get(out, 0, w*h);
+    }
+    else {
+      for (int row = 0; row < h; ++row) {
+        buf.position(row*stride);
+        buf.get(out, row*w, w);
+      }
+    }
+  }
+
+  /**
+   * Interleaves the chroma planes of a {@code YUV_420_888} image into the
+   * NV21 chroma, honouring the row and pixel strides of each plane.
+   */
+  private void readChroma(Image img, byte[] out) {
+    int w = img.getWidth();
+    int h = img.getHeight();
+    Image.Plane u = img.getPlanes()[1];
+    Image.Plane v = img.getPlanes()[2];
+    ByteBuffer u_buf = u.getBuffer();
+    ByteBuffer v_buf = v.getBuffer();
+    int u_stride = u.getPixelStride();
+    int v_stride = v.getPixelStride();
+    // bytes spanned by a row: the buffer may end right after the last sample.
+    int u_len = (w/2 - 1)*u_stride + 1;
+    int v_len = (w/2 - 1)*v_stride + 1;
+    if (u_row == null || u_row.length < u_len)
+      u_row = new byte[u_len];
+    if (v_row == null || v_row.length < v_len)
+      v_row = new byte[v_len];
+    int o = w*h;
+    for (int row = 0; row < h/2; ++row) {
+      u_buf.position(row*u.getRowStride());
+      u_buf.get(u_row, 0, u_len);
+      v_buf.position(row*v.getRowStride());
+      v_buf.get(v_row, 0, v_len);
+      for (int i = 0, pu = 0, pv = 0; i < w/2; ++i, pu += u_stride, pv += v_stride) {
+        out[o++] = v_row[pv];
+        out[o++] = u_row[pu];
+      }
+    }
+  }
+
+  /**
+   * <i>Internal message passing method.</i>
+   */
+  @Override
+  public void handleMessage(Message msg) {
+    if (msg.what == FRAME_MSG && device != null) {
+      long t = ((long)msg.arg1 << 32) | (msg.arg2 & 0xffffffffL);
+      frames.dispatch((byte[])msg.obj, t, listener);
+    }
+  }
+
+  /**
+   * <i>Internal callback.</i>
+   */
+  @Override
+  public void surfaceCreated(SurfaceHolder holder) {
+    // void implementation
+  }
+
+  /**
+   * <i>Internal callback.</i>
+   */
+  @Override
+  public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+    if (device != null) {
+      closeSession();
+      if (width != preview_width || height != preview_height)
+        holder.setFixedSize(preview_width, preview_height);
+      else
+        startPreview();
+    }
+    else {
+      openCamera();
+    }
+  }
+
+  /**
+   * <i>Internal callback.</i>
+   */
+  @Override
+  public void surfaceDestroyed(SurfaceHolder holder) {
+    // keep the camera across configuration changes: the new Activity will
+    // re-attach a preview surface using attach().
+    if (device != null && parent != null && parent.isChangingConfigurations())
+      closeSession();
+    else
+      stop();
+  }
+}
@@ -31,6 +31,7 @@ import java.util.List;
 
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
@@ -39,8 +40,10 @@ import android.graphics.drawable.Drawable;
 import android.hardware.Camera;
 import android.hardware.Camera.Parameters;
 import android.hardware.Camera.Size;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.Surface;
@@ -49,8 +52,11 @@ import android.view.SurfaceView;
 
 /**
  * Singleton helper class managing the phone Camera.
+ * <p>
+ * This is the {@link FrameSource} based on the deprecated {@link Camera} API, used
+ * as a fallback on devices that do not support {@link Camera2Source}.
  */
-public class CameraManager extends Handler implements SurfaceHolder.Callback, Camera.PreviewCallback {
+public class CameraManager extends Handler implements FrameSource, SurfaceHolder.Callback, Camera.PreviewCallback {
   
   /**
    * Interface to get callbacks and frames from the Camera.
@@ -69,6 +75,24 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
      */
     public void onCameraOpenFailed(int e);
   }
+
+  /**
+   * Interface to receive the camera frames in addition to the {@link CameraManager.Listener},
+   * e.g for diagnostics purposes.
+   * <p>
+   * Frames are shared without being copied, and delivered on the UI thread.
+   */
+  public static interface FrameSubscriber {
+    /**
+     * Notifies the subscriber of a new camera frame.
+     * <p>
+     * The subscriber <b>must</b> call {@link Frame#release()} once it does not need the
+     * frame anymore, possibly from another thread: until then, the underlying buffer is
+     * not given back to the camera.
+     * @param frame the {@link Frame}.
+     */
+    public void onFrame(Frame frame);
+  }
   
   /**
    * Camera errors codes.
@@ -102,18 +126,28 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
     
   private static boolean front_facing = false;
   private static int camera_id;
+  private static int camera_orientation = -1;
+  private CameraProfile profile;
+  private long open_time = 0;
+  private long startup_time = -1;
   private int surface_width;
   private int surface_height;
   private int preview_width;
   private int preview_height;
-  private byte[] buffer;
+  private FrameDispatcher frames;
 
   private boolean frame_requested = false;
   private boolean ready = false;
+  private boolean opening = false;
+  private boolean open_cancelled = false;
+  private boolean size_validated = false;
+  private int negotiated_width;
+  private int negotiated_height;
   private int readyMsg = 42;
 
   private CameraManager() {
     super();
+    frames = new FrameDispatcher(this);
     banned = new ArrayList<Size>();
     banned.clear();   
      
@@ -147,17 +181,45 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
     return CameraManager.instance;
   }
 
+
+  /**
+   * Get the {@link FrameSource} best suited to the device.
+   * @param context a valid context.
+   * @return  the {@link Camera2Source} singleton on Android 5.0+ devices having a
+   *          non-legacy camera, the CameraManager singleton otherwise.
+   */
+  public static FrameSource getFrameSource(Context context) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Camera2Source.isSupported(context))
+      return Camera2Source.get();
+    return get();
+  }
   
   /** Starts the camera.
    * @param parent    The caller Activity.
    * @param l         The {@link CameraManager.Listener} that will receive frames and callbacks.
    * @param surface   The {@link SurfaceView} on which to display the Camera preview.
    */
-  @SuppressWarnings("deprecation") // necessary to support Android 2.3+
   public void start(Activity parent, Listener l, SurfaceView surface) {
     ready = false;
     frame_requested = false;
     listener = l;
+    attach(parent, surface);
+  }
+
+  /**
+   * Moves the camera preview to a new {@link SurfaceView}, typically after a
+   * configuration change re-created the caller Activity.
+   * <p>
+   * If the camera has been kept opened, only the preview is restarted on the
+   * new surface once it is available: the camera is neither reopened nor
+   * re-configured unless the new surface has a different size.
+   * @param parent    The caller Activity.
+   * @param surface   The {@link SurfaceView} on which to display the Camera preview.
+   */
+  @SuppressWarnings("deprecation") // necessary to support Android 2.3+
+  public void attach(Activity parent, SurfaceView surface) {
+    if (preview_holder != null)
+      preview_holder.removeCallback(this);
     this.parent = parent;
     preview = surface;
     preview_holder = surface.getHolder();
@@ -172,6 +234,9 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
    * Stops the camera and preview 
    */
   public void stop() {
+    // the camera being opened is released as soon as it is available.
+    if (opening)
+      open_cancelled = true;
     if (focus_manager != null)
       focus_manager.stop();
     if (cam != null) {
@@ -181,10 +246,87 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
       cam.release();
       cam = null;
     }
+    frames.reset();
     ready = false;
     frame_requested = false;
   }
 
+  /**
+   * Registers a {@link FrameSubscriber} to receive the camera frames, in addition to
+   * the {@link Listener} given to {@link #start(Activity, Listener, SurfaceView)}.
+   * <p>
+   * Frames keep flowing from the camera as long as there are subscribers. Each subscriber
+   * has its own drop policy: frames are dropped for it while it holds {@code maxPending}
+   * unreleased frames, and only one frame out of {@code interval} is offered to it.
+   * The frames delivered to the {@link Listener} are not affected.
+   * <p>
+   * Must be called from the UI thread.
+   * @param s           the {@link FrameSubscriber} to register.
+   * @param maxPending  the maximum number of frames the subscriber can hold at once.
+   * @param interval    1 to be offered every frame, n to be offered one frame out of n.
+   * @return false if the subscriber was already registered.
+   */
+  public boolean subscribe(FrameSubscriber s, int maxPending, int interval) {
+    return frames.subscribe(s, maxPending, interval);
+  }
+
+  /**
+   * Unregisters a {@link FrameSubscriber}.
+   * <p>
+   * Must be called from the UI thread. Frames already delivered must still be released.
+   * @param s the {@link FrameSubscriber} to unregister.
+   * @return false if the subscriber was not registered.
+   */
+  public boolean unsubscribe(FrameSubscriber s) {
+    return frames.unsubscribe(s);
+  }
+
+  /**
+   * Tells whether the listener uses the chroma of the frames.
+   * <p>
+   * This is a no-op: the camera always delivers the full NV21 frames.
+   * @param required true if the chroma is used.
+   */
+  public void setChromaRequired(boolean required) {
+    // void implementation
+  }
+
+  /**
+   * Reopens the camera after a call to {@link #stop()}, on the preview surface
+   * given to {@link #start(Activity, Listener, SurfaceView)}.
+   * <p>
+   * The preview size negotiated by the previous run is reused as long as the
+   * preview surface keeps the same size, which skips the preview size probing.
+   * This is a no-op if the camera is already opened or if the preview surface
+   * is not available.
+   */
+  public void restart() {
+    if (preview_holder == null || preview_holder.getSurface() == null ||
+        !preview_holder.getSurface().isValid())
+      return;
+    openCamera();
+  }
+
+  /**
+   * Checks whether the camera is currently opened.
+   * @return  true if opened or being opened, false otherwise.
+   */
+  public boolean isOpened() {
+    return (cam != null || opening);
+  }
+
+  /**
+   * Get the time it took to get the first frame from the camera, the last time it was opened.
+   * <p>
+   * When the camera has already been used on this device, its saved {@link CameraProfile}
+   * is used to skip the preview size probing and validation.
+   * @return the time in milliseconds elapsed between the camera opening request and
+   *         the first frame, or -1 if unknown.
+   */
+  public long getStartupTime() {
+    return startup_time;
+  }
+
   /**
    * Asks for a new frame to be delivered to the listener.
    */
@@ -192,7 +334,16 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
     if (!ready)
       frame_requested = true;
     else
-      cam.addCallbackBuffer(buffer);
+      frames.requestFrame();
+  }
+
+  /**
+   * Get the timestamp of the frame last delivered to the listener.
+   * @return the time in nanoseconds at which the frame was received, using the
+   *         {@link System#nanoTime()} time base, 0 if the listener holds no frame.
+   */
+  public long getFrameTimestamp() {
+    return frames.getHeldTimestamp();
   }
 
   /**
@@ -213,31 +364,47 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
   
   /**
    * Requests the best available camera from the system. 
+   * @param p   the saved {@link CameraProfile} of the camera to use, if any.
    * @return  the {@link Camera} to use, if available
    * @throws Exception  if the system failed to get a Camera object.
    */
-  private static Camera getCameraInstance() 
+  private static Camera getCameraInstance(CameraProfile p) 
       throws Exception {
-    Camera.CameraInfo info = new Camera.CameraInfo();
     int nbCameras = Camera.getNumberOfCameras();
+    if (p != null && p.getCameraId() < nbCameras) {
+      // skip the cameras enumeration.
+      camera_id = p.getCameraId();
+      front_facing = p.isFrontFacing();
+      camera_orientation = p.getOrientation();
+      return Camera.open(camera_id);
+    }
+    Camera.CameraInfo info = new Camera.CameraInfo();
     int back = -1;
     int front = -1;
+    int back_ori = 0;
+    int front_ori = 0;
     for (int i = 0; i < nbCameras; ++i) {
       Camera.getCameraInfo(i, info);
-      if (back < 0 && info.facing == Camera.CameraInfo.CAMERA_FACING_BACK)
+      if (back < 0 && info.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
         back = i;
-      if (front < 0 && info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT)
+        back_ori = info.orientation;
+      }
+      if (front < 0 && info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
         front = i;
+        front_ori = info.orientation;
+      }
     }
     Camera c = null;
     if (back >= 0 || front >= 0) {
       if (back >= 0) {
         camera_id = back;
         front_facing = false;
+        camera_orientation = back_ori;
       }
       else {
         camera_id = front;
         front_facing = true;
+        camera_orientation = front_ori;
       }
       c = Camera.open(camera_id); // attempt to get a Camera instance
     }
@@ -282,14 +449,26 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
     // set the values
     preview_width = best_w;
     preview_height = best_h;
+    negotiated_width = surface_width;
+    negotiated_height = surface_height;
+    size_validated = false;
+    applyPreviewSize(params);
+  }
+
+  /**
+   * Applies the current preview size to the camera, and allocates the
+   * matching frame buffers.
+   * @param params  the camera {@link Parameters} to update.
+   */
+  private void applyPreviewSize(Parameters params) {
     params.setPreviewSize(preview_width, preview_height);
     // we force the preview format to NV21
     params.setPreviewFormat(ImageFormat.NV21);
     cam.setParameters(params);
-    // pre-allocate buffer of size #pixels x 3/2
+    // pre-allocate buffers of size #pixels x 3/2
     // as NV21 uses #pixels for grayscale and twice
     // #pixels/4 for chroma.
-    buffer = new byte[preview_width*preview_height*3/2];
+    frames.configure(cam, preview_width, preview_height);
     // notify Listener
     listener.onPreviewInfoFound(preview_width, preview_height, front_facing);
   }
@@ -300,9 +479,13 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
    * @param camera      The {@link Camera} in use.
    */
   public static void setCameraDisplayOrientation(Activity activity, android.hardware.Camera camera) {
-    android.hardware.Camera.CameraInfo info =
-            new android.hardware.Camera.CameraInfo();
-    android.hardware.Camera.getCameraInfo(camera_id, info);
+    int orientation = camera_orientation;
+    if (orientation < 0) {
+      android.hardware.Camera.CameraInfo info =
+              new android.hardware.Camera.CameraInfo();
+      android.hardware.Camera.getCameraInfo(camera_id, info);
+      orientation = info.orientation;
+    }
     int rotation = activity.getWindowManager().getDefaultDisplay()
             .getRotation();
     int degrees = 0;
@@ -315,10 +498,10 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
   
     int result;
     if (front_facing) {
-        result = (info.orientation + degrees) % 360;
+        result = (orientation + degrees) % 360;
         result = (360 - result) % 360;  // compensate the mirror
     } else {  // back-facing
-        result = (info.orientation - degrees + 360) % 360;
+        result = (orientation - degrees + 360) % 360;
     }
     camera.setDisplayOrientation(result);
   }
@@ -331,7 +514,44 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
     
     surface_width = width;
     surface_height = height;
-        
+    if (cam != null) {
+      // the camera survived a surface change: only restart the preview.
+      pausePreview();
+      startPreview();
+    }
+    else {
+      openCamera();
+    }
+  }
+
+  /**
+   * Stops the preview while keeping the camera opened.
+   */
+  private void pausePreview() {
+    if (focus_manager != null)
+      focus_manager.stop();
+    cam.cancelAutoFocus();
+    cam.stopPreview();
+    // clears the buffer queue: a pending frame request is re-issued
+    // once the preview restarts.
+    cam.setPreviewCallbackWithBuffer(null);
+    frames.reset();
+    frame_requested = frame_requested || ready;
+    ready = false;
+  }
+
+  /**
+   * Opens the camera asynchronously, unless it is already opened.
+   */
+  private void openCamera() {
+    if (opening)
+      open_cancelled = false;
+    if (cam != null || opening)
+      return;
+    opening = true;
+    open_time = SystemClock.elapsedRealtime();
+    final Context context = parent.getApplicationContext();
+
     /* This thread allows to open the camera asynchronously, as advised in the Android documentation.
      * (See http://developer.android.com/reference/android/hardware/Camera.html#open(int) )
      * Upon completion, it sends a message to the handler of this class, right below this function.
@@ -349,7 +569,11 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
       public void run() {
         int error = CameraError.SUCCESS;
         try {
-          cam = getCameraInstance();
+          CameraProfile p = CameraProfile.load(context);
+          cam = getCameraInstance(p);
+          if (p == null || p.getCameraId() != camera_id)
+            p = new CameraProfile(camera_id, front_facing, camera_orientation);
+          profile = p;
         } catch (Exception err) {
           error = CameraError.OPEN_ERROR;
         }
@@ -368,8 +592,16 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
   @Override
   public void handleMessage(Message msg) {
     if (msg.what == readyMsg) {
+      opening = false;
       int e = ((Integer)msg.obj).intValue();
-      if (e == CameraError.SUCCESS) {
+      if (open_cancelled) {
+        open_cancelled = false;
+        if (cam != null) {
+          cam.release();
+          cam = null;
+        }
+      }
+      else if (e == CameraError.SUCCESS) {
         startPreview();
       }
       else {
@@ -382,8 +614,38 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
    * Starts the Camera preview
    */
   private void startPreview() {
-    findBestPreviewSize();
-    cam.setPreviewCallback(this);
+    if (preview_width > 0 && negotiated_width == surface_width &&
+        negotiated_height == surface_height) {
+      // fast path: reuse the size negotiated by the previous run.
+      applyPreviewSize(cam.getParameters());
+    }
+    else if (profile != null && profile.hasPreviewSize(surface_width, surface_height)) {
+      // fast path: reuse the size validated the last time this camera was used.
+      preview_width = profile.getPreviewWidth();
+      preview_height = profile.getPreviewHeight();
+      negotiated_width = surface_width;
+      negotiated_height = surface_height;
+      size_validated = true;
+      applyPreviewSize(cam.getParameters());
+    }
+    else {
+      if (profile != null) {
+        for (int[] b : profile.getBanned()) {
+          Size s = cam.new Size(b[0], b[1]);
+          if (!banned.contains(s))
+            banned.add(s);
+        }
+      }
+      findBestPreviewSize();
+    }
+    if (size_validated) {
+      cam.setPreviewCallbackWithBuffer(this);
+      ready = true;
+      frames.stream();
+    }
+    else {
+      cam.setPreviewCallback(this);
+    }
     setCameraDisplayOrientation(parent, cam);
     focus_manager = new AutoFocusManager(cam);
     try {
@@ -394,6 +656,8 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
     cam.startPreview();
     focus_manager.start();
     setCameraWaiter(null);
+    if (ready && frame_requested)
+      requestNewFrame();
   }
   
   /**
@@ -410,7 +674,12 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
    */
   @Override
   public void surfaceDestroyed(SurfaceHolder holder) {
-    stop();
+    // keep the camera across configuration changes: the new Activity will
+    // re-attach a preview surface using attach().
+    if (cam != null && parent != null && parent.isChangingConfigurations())
+      pausePreview();
+    else
+      stop();
   }
   
   /**
@@ -444,17 +713,45 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
    */
   @Override
   public void onPreviewFrame(byte[] data, Camera camera) {
+    if (ready) {
+      // frames left from the validation step are not ours to forward.
+      if (!frames.owns(data))
+        return;
+      if (open_time > 0)
+        reportStartup();
+      frames.dispatch(data, listener);
+      return;
+    }
     if (data.length != 3*preview_width*preview_height/2) {
       Size s = cam.new Size(preview_width,preview_height);
       banned.add(s);
+      if (profile != null)
+        profile.ban(preview_width, preview_height);
       findBestPreviewSize();
     }
     else {
-      cam.setPreviewCallbackWithBuffer(listener);
+      size_validated = true;
+      if (profile != null) {
+        profile.setPreviewSize(surface_width, surface_height, preview_width, preview_height);
+        profile.save(parent.getApplicationContext());
+      }
+      if (open_time > 0)
+        reportStartup();
+      cam.setPreviewCallbackWithBuffer(this);
       ready = true;
+      frames.stream();
       if (frame_requested)
         requestNewFrame();
     }
   }
 
+  /**
+   * Measures and logs the time elapsed between the camera opening request and the first frame.
+   */
+  private void reportStartup() {
+    startup_time = SystemClock.elapsedRealtime() - open_time;
+    open_time = 0;
+    Log.d("CameraManager", "Camera started in " + startup_time + " ms");
+  }
+
 }
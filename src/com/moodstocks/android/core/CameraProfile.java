@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+/**
+ * Persisted description of a device camera, used to start the camera
+ * without probing its capabilities again.
+ * <p>
+ * A profile is stored per device model and camera id, and holds the camera
+ * facing and orientation, the preview size chosen for a given preview surface
+ * size, and the preview sizes that turned out not to be usable.
+ * It is discarded if the device firmware changes.
+ */
+public class CameraProfile {
+
+  private static final String PREFS = "moodstocks_camera_profiles";
+  private static final String DEFAULT_ID = "default";
+
+  private final int camera_id;
+  private final boolean front_facing;
+  private final int orientation;
+  private int surface_width = 0;
+  private int surface_height = 0;
+  private int preview_width = 0;
+  private int preview_height = 0;
+  private final List<int[]> banned = new ArrayList<int[]>();
+
+  /**
+   * Constructor.
+   * @param camera_id     the camera id, as used by {@link android.hardware.Camera#open(int)}
+   * @param front_facing  false if back-facing, true if front-facing.
+   * @param orientation   the camera sensor orientation, in degrees.
+   */
+  public CameraProfile(int camera_id, boolean front_facing, int orientation) {
+    this.camera_id = camera_id;
+    this.front_facing = front_facing;
+    this.orientation = orientation;
+  }
+
+  /**
+   * Loads the profile of the camera last used on this device.
+   * <p>
+   * This method reads from the disk and should not be called from the UI thread.
+   * @param context a valid context.
+   * @return the profile, or null if none was saved or if it is outdated.
+   */
+  public static CameraProfile load(Context context) {
+    SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    int id = prefs.getInt(key(DEFAULT_ID), -1);
+    if (id < 0)
+      return null;
+    return decode(prefs.getString(key(String.valueOf(id)), null));
+  }
+
+  /**
+   * Saves this profile as the one of the camera last used on this device.
+   * <p>
+   * The write is performed asynchronously.
+   * @param context a valid context.
+   */
+  public void save(Context context) {
+    SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    prefs.edit()
+         .putInt(key(DEFAULT_ID), camera_id)
+         .putString(key(String.valueOf(camera_id)), encode())
+         .apply();
+  }
+
+  /**
+   * Get the camera id.
+   * @return the camera id, as used by {@link android.hardware.Camera#open(int)}
+   */
+  public int getCameraId() {
+    return camera_id;
+  }
+
+  /**
+   * Get the camera facing.
+   * @return false if back-facing, true if front-facing.
+   */
+  public boolean isFrontFacing() {
+    return front_facing;
+  }
+
+  /**
+   * Get the camera sensor orientation.
+   * @return the orientation in degrees.
+   */
+  public int getOrientation() {
+    return orientation;
+  }
+
+  /**
+   * Checks whether a preview size has been validated for a given preview surface size.
+   * @param w the preview surface width
+   * @param h the preview surface height
+   * @return true if {@link #getPreviewWidth()} and {@link #getPreviewHeight()} can be used.
+   */
+  public boolean hasPreviewSize(int w, int h) {
+    return (preview_width > 0 && surface_width == w && surface_height == h);
+  }
+
+  /**
+   * @return the validated preview width, 0 if unknown.
+   */
+  public int getPreviewWidth() {
+    return preview_width;
+  }
+
+  /**
+   * @return the validated preview height, 0 if unknown.
+   */
+  public int getPreviewHeight() {
+    return preview_height;
+  }
+
+  /**
+   * Records the preview size that has been validated for a preview surface size.
+   * @param sw  the preview surface width
+   * @param sh  the preview surface height
+   * @param pw  the preview width
+   * @param ph  the preview height
+   */
+  public void setPreviewSize(int sw, int sh, int pw, int ph) {
+    surface_width = sw;
+    surface_height = sh;
+    preview_width = pw;
+    preview_height = ph;
+  }
+
+  /**
+   * Records a preview size that is advertised but not usable.
+   * @param w the preview width
+   * @param h the preview height
+   */
+  public void ban(int w, int h) {
+    for (int[] s : banned) {
+      if (s[0] == w && s[1] == h)
+        return;
+    }
+    banned.add(new int[] {w, h});
+  }
+
+  /**
+   * Get the preview sizes that are advertised but not usable.
+   * @return a list of [width, height] pairs.
+   */
+  public List<int[]> getBanned() {
+    return banned;
+  }
+
+  private static String key(String id) {
+    return Build.MODEL + "/" + id;
+  }
+
+  /* Format: fingerprint|id,front,orientation,sw,sh,pw,ph|w1xh1,w2xh2,... */
+  private String encode() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(Build.FINGERPRINT).append('|');
+    sb.append(camera_id).append(',').append(front_facing ? 1 : 0).append(',').append(orientation).append(',');
+    sb.append(surface_width).append(',').append(surface_height).append(',');
+    sb.append(preview_width).append(',').append(preview_height).append('|');
+    for (int i = 0; i < banned.size(); ++i) {
+      if (i > 0) sb.append(',');
+      sb.append(banned.get(i)[0]).append('x').append(banned.get(i)[1]);
+    }
+    return sb.toString();
+  }
+
+  private static CameraProfile decode(String s) {
+    if (s == null)
+      return null;
+    String[] parts = s.split("\\|", -1);
+    if (parts.length != 3 || !parts[0].equals(Build.FINGERPRINT))
+      return null;
+    try {
+      String[] v = parts[1].split(",");
+      CameraProfile p = new CameraProfile(Integer.parseInt(v[0]), Integer.parseInt(v[1]) != 0,
+                                          Integer.parseInt(v[2]));
+      p.setPreviewSize(Integer.parseInt(v[3]), Integer.parseInt(v[4]),
+                       Integer.parseInt(v[5]), Integer.parseInt(v[6]));
+      if (parts[2].length() > 0) {
+        for (String b : parts[2].split(",")) {
+          int x = b.indexOf('x');
+          p.ban(Integer.parseInt(b.substring(0, x)), Integer.parseInt(b.substring(x+1)));
+        }
+      }
+      return p;
+    } catch (RuntimeException e) {
+      // corrupted profile: probe the camera again.
+      return null;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android.core;
+
+/**
+ * A camera frame shared with a {@link CameraManager.FrameSubscriber}.
+ * <p>
+ * The frame bytes are <b>not</b> copied: they are the camera buffer itself,
+ * which is given back to the camera once every subscriber has called
+ * {@link #release()} on the frame it received. The frame content must not be
+ * modified, nor used after {@link #release()}.
+ */
+public final class Frame {
+
+  private final FrameDispatcher.Subscription owner;
+  FrameDispatcher.Buffer buffer = null;
+
+  /**
+   * Constructor, called only from {@link FrameDispatcher}.
+   */
+  Frame(FrameDispatcher.Subscription owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * Get the frame bytes.
+   * @return the NV21 frame bytes.
+   */
+  public byte[] getData() {
+    return buffer.data;
+  }
+
+  /**
+   * @return the frame width.
+   */
+  public int getWidth() {
+    return buffer.width;
+  }
+
+  /**
+   * @return the frame height.
+   */
+  public int getHeight() {
+    return buffer.height;
+  }
+
+  /**
+   * Get the frame timestamp.
+   * @return the time in nanoseconds at which the frame was received, using
+   *         the {@link System#nanoTime()} time base.
+   */
+  public long getTimestamp() {
+    return buffer.timestamp;
+  }
+
+  /**
+   * Gives the frame back to the camera.
+   * <p>
+   * Must be called exactly once for each frame received, from any thread.
+   */
+  public void release() {
+    FrameDispatcher.Buffer b = buffer;
+    buffer = null;
+    owner.recycle(this);
+    b.release();
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Internal class managing the camera frame buffers, and sharing them between
+ * the {@link CameraManager.Listener} and the registered
+ * {@link CameraManager.FrameSubscriber}s without copying them.
+ * <p>
+ * Each buffer is reference counted, and is given back to the camera once
+ * every consumer released it. Except for {@link Frame#release()}, {@link #poll()}
+ * and {@link #hasSubscribers()}, all the methods must be called from the thread
+ * receiving the camera frames.
+ * <p>
+ * When configured without a {@link Camera}, the free buffers are queued for the
+ * frame source to fill them itself: it takes them using {@link #poll()}, and
+ * hands them back filled to {@link #dispatch(byte[], long, Camera.PreviewCallback)}.
+ */
+class FrameDispatcher {
+
+  /* number of buffers shared with the camera */
+  private static final int POOL_SIZE = 3;
+
+  private final Handler handler;
+  private final Buffer[] buffers = new Buffer[POOL_SIZE];
+  private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+  /* buffers waiting to be filled, when there is no camera to queue them in */
+  private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<byte[]>();
+  private Camera camera = null;
+  private boolean active = false;
+  private int width = 0;
+  private int height = 0;
+  private int generation = 0;
+  private int queued = 0;
+  private Buffer held = null;
+  private boolean requested = false;
+
+  /**
+   * Constructor.
+   * @param handler the {@link Handler} of the thread receiving the camera frames.
+   */
+  FrameDispatcher(Handler handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * Binds the buffers to a camera and a frame size, allocating them if needed.
+   * @param c the camera to queue the buffers in, or null if they are taken using {@link #poll()}.
+   */
+  void configure(Camera c, int w, int h) {
+    reset();
+    camera = c;
+    active = true;
+    width = w;
+    height = h;
+    int size = w*h*3/2;
+    for (int i = 0; i < POOL_SIZE; ++i) {
+      if (buffers[i] == null || buffers[i].data.length != size)
+        buffers[i] = new Buffer(size, generation);
+      buffers[i].width = w;
+      buffers[i].height = h;
+    }
+  }
+
+  /**
+   * Forgets about the buffers queued in the camera, e.g because it stopped.
+   * <p>
+   * Buffers still used by a consumer are replaced, so that their content is
+   * not overwritten before they are released. So are the buffers taken using
+   * {@link #poll()}, which may still be being filled.
+   */
+  void reset() {
+    boolean polled = (active && camera == null);
+    ++generation;
+    camera = null;
+    active = false;
+    pending.clear();
+    queued = 0;
+    held = null;
+    requested = false;
+    for (int i = 0; i < POOL_SIZE; ++i) {
+      Buffer b = buffers[i];
+      if (b == null)
+        continue;
+      if (b.refs.get() > 0 || (polled && b.queued))
+        buffers[i] = new Buffer(b.data.length, generation);
+      else
+        b.generation = generation;
+      buffers[i].queued = false;
+    }
+  }
+
+  /**
+   * Checks whether a byte array is one of the buffers.
+   */
+  boolean owns(byte[] data) {
+    for (int i = 0; i < POOL_SIZE; ++i) {
+      if (buffers[i] != null && buffers[i].data == data)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Asks for a new frame for the listener, releasing the one it got previously.
+   */
+  void requestFrame() {
+    requested = true;
+    if (held != null) {
+      Buffer b = held;
+      held = null;
+      b.release();
+    }
+    if (queued == 0)
+      queueFree();
+  }
+
+  /**
+   * Checks whether the listener waits for a frame.
+   */
+  boolean isRequested() {
+    return requested;
+  }
+
+  /**
+   * Get the timestamp of the frame held by the listener.
+   * @return the timestamp in nanoseconds, 0 if the listener holds no frame.
+   */
+  long getHeldTimestamp() {
+    return (held != null ? held.timestamp : 0);
+  }
+
+  /**
+   * Takes a buffer to fill, when configured without a camera. Can be called from any thread.
+   * @return the buffer, or null if no frame is wanted for now.
+   */
+  byte[] poll() {
+    return pending.poll();
+  }
+
+  /**
+   * Checks whether subscribers are registered. Can be called from any thread.
+   */
+  boolean hasSubscribers() {
+    return !subscriptions.isEmpty();
+  }
+
+  /**
+   * Dispatches a frame received from the camera, timestamped with {@link System#nanoTime()}.
+   * @return false if the frame is not one of the buffers.
+   */
+  boolean dispatch(byte[] data, Camera.PreviewCallback listener) {
+    return dispatch(data, System.nanoTime(), listener);
+  }
+
+  /**
+   * Dispatches a frame received from the camera.
+   * @param timestamp the frame timestamp in nanoseconds.
+   * @return false if the frame is not one of the buffers.
+   */
+  boolean dispatch(byte[] data, long timestamp, Camera.PreviewCallback listener) {
+    Buffer b = null;
+    for (int i = 0; i < POOL_SIZE; ++i) {
+      if (buffers[i] != null && buffers[i].data == data) {
+        b = buffers[i];
+        break;
+      }
+    }
+    if (b == null || !b.queued)
+      return false;
+    b.queued = false;
+    --queued;
+    b.timestamp = timestamp;
+    b.refs.set(1);
+    if (requested) {
+      requested = false;
+      held = b;
+      b.refs.incrementAndGet();
+      listener.onPreviewFrame(data, camera);
+    }
+    for (Subscription s : subscriptions) {
+      Frame f = s.obtain();
+      if (f != null) {
+        b.refs.incrementAndGet();
+        f.buffer = b;
+        s.subscriber.onFrame(f);
+      }
+    }
+    b.release();
+    return true;
+  }
+
+  /**
+   * Starts feeding the camera with buffers if subscribers are waiting for frames.
+   */
+  void stream() {
+    if (!subscriptions.isEmpty())
+      queueFree();
+  }
+
+  /**
+   * Registers a subscriber.
+   */
+  boolean subscribe(CameraManager.FrameSubscriber s, int maxPending, int interval) {
+    if (s == null || maxPending < 1 || interval < 1)
+      throw new IllegalArgumentException("Invalid frame subscription");
+    for (Subscription sub : subscriptions) {
+      if (sub.subscriber == s)
+        return false;
+    }
+    subscriptions.add(new Subscription(s, maxPending, interval));
+    // subscribers get frames continuously.
+    queueFree();
+    return true;
+  }
+
+  /**
+   * Unregisters a subscriber.
+   */
+  boolean unsubscribe(CameraManager.FrameSubscriber s) {
+    for (Subscription sub : subscriptions) {
+      if (sub.subscriber == s)
+        return subscriptions.remove(sub);
+    }
+    return false;
+  }
+
+  /**
+   * Queues free buffers in the camera: all of them if there are subscribers,
+   * a single one otherwise.
+   */
+  private void queueFree() {
+    if (!active)
+      return;
+    for (int i = 0; i < POOL_SIZE; ++i) {
+      Buffer b = buffers[i];
+      if (b != null && !b.queued && b.refs.get() == 0) {
+        queue(b);
+        if (subscriptions.isEmpty())
+          return;
+      }
+    }
+  }
+
+  private void queue(Buffer b) {
+    b.queued = true;
+    ++queued;
+    if (camera != null)
+      camera.addCallbackBuffer(b.data);
+    else
+      pending.offer(b.data);
+  }
+
+  /**
+   * Called once a buffer is not used anymore.
+   */
+  private void recycle(Buffer b) {
+    if (b.generation != generation || !active || b.queued)
+      return;
+    if (!subscriptions.isEmpty() || (requested && queued == 0))
+      queue(b);
+  }
+
+  /**
+   * A reference counted frame buffer.
+   */
+  class Buffer implements Runnable {
+    final byte[] data;
+    final AtomicInteger refs = new AtomicInteger(0);
+    int width;
+    int height;
+    long timestamp;
+    int generation;
+    boolean queued = false;
+
+    private Buffer(int size, int generation) {
+      this.data = new byte[size];
+      this.generation = generation;
+    }
+
+    void release() {
+      if (refs.decrementAndGet() == 0) {
+        if (Looper.myLooper() == handler.getLooper())
+          recycle(this);
+        else
+          handler.post(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (refs.get() == 0)
+        recycle(this);
+    }
+  }
+
+  /**
+   * A registered subscriber, along with its drop policy.
+   */
+  static class Subscription {
+    final CameraManager.FrameSubscriber subscriber;
+    private final int interval;
+    private final Frame[] free;
+    private int nfree;
+    private int count = 0;
+
+    private Subscription(CameraManager.FrameSubscriber s, int maxPending, int interval) {
+      this.subscriber = s;
+      this.interval = interval;
+      this.free = new Frame[maxPending];
+      for (int i = 0; i < maxPending; ++i)
+        free[i] = new Frame(this);
+      this.nfree = maxPending;
+    }
+
+    /* Returns a frame handle, or null if this frame must be dropped. */
+    private synchronized Frame obtain() {
+      if ((count++ % interval) != 0 || nfree == 0)
+        return null;
+      return free[--nfree];
+    }
+
+    synchronized void recycle(Frame f) {
+      free[nfree++] = f;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android.core;
+
+/**
+ * Class keeping copies of the best recent camera frames, scored for
+ * sharpness and exposure, so that a good frame is available right away
+ * without waiting for the autofocus.
+ * <p>
+ * Frames are scored before being copied, and most of them are not: a frame
+ * is only copied if it is at least 10% better than the frames kept that are
+ * younger than half the maximum age.
+ * <p>
+ * This class is thread-safe.
+ */
+public class FrameSelector {
+
+  /* number of frames kept */
+  private static final int SIZE = 3;
+  /* sampling step, in pixels, used to score the frames */
+  private static final int STEP = 4;
+  /* mean luminance range outside of which a frame is considered badly exposed */
+  private static final int MIN_LUMA = 24;
+  private static final int MAX_LUMA = 232;
+  /* score gain, over the recent frames kept, needed for a frame to be copied */
+  private static final float MIN_GAIN = 1.1f;
+
+  private final byte[][] frames = new byte[SIZE][];
+  private final float[] scores = new float[SIZE];
+  private final long[] times = new long[SIZE];
+  private final boolean[] used = new boolean[SIZE];
+  private int width = 0;
+  private int height = 0;
+
+  /**
+   * Scores an NV21 frame for sharpness and exposure.
+   * <p>
+   * Sharpness is the mean luminance gradient over a sparse grid, weighted
+   * by how close the mean luminance is to mid-gray.
+   * @param data  the NV21 frame
+   * @param w     the frame width
+   * @param h     the frame height
+   * @return the frame score, 0 if the frame is badly exposed.
+   */
+  public static float score(byte[] data, int w, int h) {
+    long grad = 0;
+    long luma = 0;
+    int n = 0;
+    for (int y = STEP; y < h - STEP; y += STEP) {
+      int row = y*w;
+      for (int x = STEP; x < w - STEP; x += STEP) {
+        int p = data[row+x] & 0xFF;
+        int dx = (data[row+x+1] & 0xFF) - p;
+        int dy = (data[row+w+x] & 0xFF) - p;
+        grad += Math.abs(dx) + Math.abs(dy);
+        luma += p;
+        ++n;
+      }
+    }
+    if (n == 0)
+      return 0;
+    float mean = (float)luma/n;
+    if (mean < MIN_LUMA || mean > MAX_LUMA)
+      return 0;
+    float exposure = 1 - Math.abs(mean - 128)/128;
+    return ((float)grad/n) * (0.5f + 0.5f*exposure);
+  }
+
+  /**
+   * Offers a frame: a copy of it is kept if no recent frame almost as good
+   * is kept already, replacing a frame that is too old or the worst one.
+   * @param data    the NV21 frame
+   * @param w       the frame width
+   * @param h       the frame height
+   * @param time    the frame time, in milliseconds
+   * @param maxAge  the age in milliseconds above which a kept frame is replaced.
+   * @return the frame score.
+   */
+  public float offer(byte[] data, int w, int h, long time, long maxAge) {
+    float s = score(data, w, h);
+    synchronized (this) {
+      if (w != width || h != height) {
+        clear();
+        width = w;
+        height = h;
+      }
+      // badly exposed frames are never taken.
+      if (s <= 0)
+        return s;
+      int slot = -1;
+      for (int i = 0; i < SIZE; ++i) {
+        if (!used[i] || time - times[i] > maxAge) {
+          if (slot < 0 || used[slot])
+            slot = i;
+          continue;
+        }
+        // a kept frame almost as good stays available long enough.
+        if (scores[i]*MIN_GAIN >= s && 2*(time - times[i]) <= maxAge)
+          return s;
+        if (slot < 0 || (used[slot] && time - times[slot] <= maxAge && scores[i] < scores[slot]))
+          slot = i;
+      }
+      if (used[slot] && time - times[slot] <= maxAge && scores[slot] >= s)
+        return s;
+      if (frames[slot] == null || frames[slot].length != data.length)
+        frames[slot] = new byte[data.length];
+      System.arraycopy(data, 0, frames[slot], 0, data.length);
+      scores[slot] = s;
+      times[slot] = time;
+      used[slot] = true;
+    }
+    return s;
+  }
+
+  /**
+   * Takes the best frame kept.
+   * <p>
+   * The returned array is handed over to the caller: it is not reused.
+   * @param time    the current time, in milliseconds
+   * @param maxAge  the maximum age in milliseconds of the returned frame.
+   * @return the best recent frame, or null if there is none.
+   */
+  public synchronized byte[] take(long time, long maxAge) {
+    int best = -1;
+    for (int i = 0; i < SIZE; ++i) {
+      if (used[i] && time - times[i] <= maxAge && scores[i] > 0 &&
+          (best < 0 || scores[i] > scores[best]))
+        best = i;
+    }
+    if (best < 0)
+      return null;
+    byte[] f = frames[best];
+    frames[best] = null;
+    used[best] = false;
+    return f;
+  }
+
+  /**
+   * Drops all the frames kept.
+   */
+  public synchronized void clear() {
+    for (int i = 0; i < SIZE; ++i)
+      used[i] = false;
+  }
+}
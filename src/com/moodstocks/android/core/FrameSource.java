@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android.core;
+
+import android.app.Activity;
+import android.view.SurfaceView;
+
+/**
+ * Interface implemented by the classes delivering camera frames to a
+ * {@link CameraManager.Listener}.
+ * <p>
+ * Use {@link CameraManager#getFrameSource(android.content.Context)} to get the
+ * implementation best suited to the device. All methods must be called from
+ * the UI thread, on which the listener callbacks are made.
+ */
+public interface FrameSource {
+
+  /**
+   * Starts the camera.
+   * @param parent    The caller Activity.
+   * @param l         The {@link CameraManager.Listener} that will receive frames and callbacks.
+   * @param surface   The {@link SurfaceView} on which to display the Camera preview.
+   */
+  public void start(Activity parent, CameraManager.Listener l, SurfaceView surface);
+
+  /**
+   * Moves the camera preview to a new {@link SurfaceView}, typically after a
+   * configuration change re-created the caller Activity.
+   * @param parent    The caller Activity.
+   * @param surface   The {@link SurfaceView} on which to display the Camera preview.
+   */
+  public void attach(Activity parent, SurfaceView surface);
+
+  /**
+   * Stops the camera and preview.
+   */
+  public void stop();
+
+  /**
+   * Registers a {@link CameraManager.FrameSubscriber} to receive the camera frames, in
+   * addition to the listener. See {@link CameraManager#subscribe(CameraManager.FrameSubscriber, int, int)}.
+   * @param s           the {@link CameraManager.FrameSubscriber} to register.
+   * @param maxPending  the maximum number of frames the subscriber can hold at once.
+   * @param interval    1 to be offered every frame, n to be offered one frame out of n.
+   * @return false if the subscriber was already registered.
+   */
+  public boolean subscribe(CameraManager.FrameSubscriber s, int maxPending, int interval);
+
+  /**
+   * Unregisters a {@link CameraManager.FrameSubscriber}.
+   * @param s the {@link CameraManager.FrameSubscriber} to unregister.
+   * @return false if the subscriber was not registered.
+   */
+  public boolean unsubscribe(CameraManager.FrameSubscriber s);
+
+  /**
+   * Tells whether the listener uses the chroma of the frames, e.g to display them.
+   * <p>
+   * Sources may skip reading the chroma otherwise. The frames given to
+   * subscribers always have their chroma.
+   * @param required true if the chroma is used.
+   */
+  public void setChromaRequired(boolean required);
+
+  /**
+   * Reopens the camera after a call to {@link #stop()}, on the preview surface
+   * given to {@link #start(Activity, CameraManager.Listener, SurfaceView)}.
+   */
+  public void restart();
+
+  /**
+   * Checks whether the camera is currently opened.
+   * @return  true if opened or being opened, false otherwise.
+   */
+  public boolean isOpened();
+
+  /**
+   * Get the time it took to get the first frame from the camera, the last time it was opened.
+   * @return the time in milliseconds, or -1 if unknown.
+   */
+  public long getStartupTime();
+
+  /**
+   * Asks for a new frame to be delivered to the listener.
+   * <p>
+   * The frame previously delivered must not be used after this call.
+   */
+  public void requestNewFrame();
+
+  /**
+   * Get the timestamp of the frame last delivered to the listener.
+   * @return the timestamp in nanoseconds. Only the difference between two
+   *         timestamps is meaningful, as the time base depends on the implementation.
+   */
+  public long getFrameTimestamp();
+
+  /**
+   * Checks the autofocus current state
+   * @return  true if focussed, false otherwise.
+   */
+  public boolean isFocussed();
+
+  /**
+   * Requests an autofocus immediately.
+   */
+  public void requestFocus();
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android.core;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+
+/**
+ * Class using the accelerometer to detect whether the device is moving,
+ * lying still, or lying face-down.
+ */
+public class MotionDetector implements SensorEventListener {
+
+  /**
+   * Interface to get notified when the device starts moving.
+   */
+  public static interface Listener {
+    /**
+     * Notifies the listener that the device started moving after having
+     * been still for a while.
+     */
+    public void onMotionStarted();
+  }
+
+  /* low-pass filter factor used to isolate gravity */
+  private static final float ALPHA = 0.8f;
+  /* linear acceleration above which the device is considered moving, in m/s^2 */
+  private static final float MOTION_THRESHOLD = 0.6f;
+  /* gravity component along the screen normal below which the device is face-down, in m/s^2 */
+  private static final float FACE_DOWN_THRESHOLD = -8.5f;
+  /* stillness duration after which a motion is notified to the listener, in ms */
+  private static final long NOTIFY_DELAY = 1000;
+
+  private SensorManager manager;
+  private Sensor accelerometer;
+  private Listener listener;
+  private final float[] gravity = new float[3];
+  private boolean initialized = false;
+  private boolean enabled = false;
+  private volatile boolean face_down = false;
+  private volatile long last_motion;
+
+  /**
+   * Constructor.
+   * @param context   a valid context to get the sensor service.
+   * @param l         the {@link MotionDetector.Listener} to notify.
+   */
+  public MotionDetector(Context context, Listener l) {
+    this.listener = l;
+    this.manager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    if (manager != null)
+      this.accelerometer = manager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+    this.last_motion = SystemClock.elapsedRealtime();
+  }
+
+  /**
+   * Starts listening to the accelerometer.
+   * <p>
+   * If the device has no accelerometer, it is always considered moving.
+   */
+  public void enable() {
+    if (!enabled && accelerometer != null) {
+      initialized = false;
+      last_motion = SystemClock.elapsedRealtime();
+      manager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+      enabled = true;
+    }
+  }
+
+  /**
+   * Stops listening to the accelerometer.
+   */
+  public void disable() {
+    if (enabled) {
+      manager.unregisterListener(this);
+      enabled = false;
+      face_down = false;
+    }
+  }
+
+  /**
+   * Get the time elapsed since the device last moved.
+   * @return the stillness duration in milliseconds, 0 if the device is
+   *         moving or if the motion cannot be detected.
+   */
+  public long getStillDuration() {
+    if (!enabled)
+      return 0;
+    return SystemClock.elapsedRealtime() - last_motion;
+  }
+
+  /**
+   * Checks whether the device is lying face-down, e.g on a table.
+   * @return true if face-down, false otherwise.
+   */
+  public boolean isFaceDown() {
+    return face_down;
+  }
+
+  /**
+   * <i>Internal callback</i>
+   */
+  @Override
+  public void onSensorChanged(SensorEvent event) {
+    float[] v = event.values;
+    if (!initialized) {
+      gravity[0] = v[0];
+      gravity[1] = v[1];
+      gravity[2] = v[2];
+      initialized = true;
+      return;
+    }
+    float motion = 0;
+    for (int i = 0; i < 3; ++i) {
+      gravity[i] = ALPHA * gravity[i] + (1 - ALPHA) * v[i];
+      float linear = v[i] - gravity[i];
+      motion += linear * linear;
+    }
+    face_down = gravity[2] < FACE_DOWN_THRESHOLD;
+    if (motion > MOTION_THRESHOLD * MOTION_THRESHOLD) {
+      long now = SystemClock.elapsedRealtime();
+      boolean notify = (now - last_motion) >= NOTIFY_DELAY;
+      last_motion = now;
+      if (notify && listener != null)
+        listener.onMotionStarted();
+    }
+  }
+
+  /**
+   * <i>Internal callback</i>
+   */
+  @Override
+  public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    // void implementation
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2012 Moodstocks SAS
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.moodstocks.android.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pure Java color conversion and resampling utilities for camera frames.
+ * <p>
+ * These functions do not depend on the native library, and can thus be used as a
+ * fallback on devices that are not supported by it. They write into arrays supplied
+ * by the caller, so that they can be reused from one frame to the next. Frames of
+ * at least {@link #PARALLEL_THRESHOLD} pixels are processed by stripes of rows spread
+ * across the CPU cores.
+ * <p>
+ * Unless stated otherwise, {@code stride} is the number of bytes per row of the
+ * input, and outputs are packed, i.e. without row padding.
+ */
+public final class YuvConverter {
+
+  /**
+   * Number of pixels above which a frame is processed in parallel.
+   */
+  public static final int PARALLEL_THRESHOLD = 640*480;
+
+  private static final int CORES = Runtime.getRuntime().availableProcessors();
+  private static ExecutorService executor = null;
+
+  private YuvConverter() {
+    // static utilities only
+  }
+
+  /**
+   * Converts an NV21 frame into ARGB pixels.
+   * @param data    the NV21 frame, whose interleaved VU rows follow the {@code h} luminance rows.
+   * @param w       the frame width
+   * @param h       the frame height
+   * @param stride  the frame stride, for both luminance and chroma rows.
+   * @param out     the output array, of at least {@code w*h} elements.
+   */
+  public static void nv21ToARGB(final byte[] data, final int w, final int h, final int stride,
+                                final int[] out) {
+    // stripes start on even rows, so that they do not share chroma rows.
+    run((h+1)/2, w*h, new Stripe() {
+      @Override
+      void process(int from, int to) {
+        int uv0 = stride*h;
+        for (int j = 2*from; j < Math.min(2*to, h); ++j) {
+          int y = j*stride;
+          int uv = uv0 + (j >> 1)*stride;
+          int o = j*w;
+          int u = 0;
+          int v = 0;
+          for (int i = 0; i < w; ++i, ++y, ++o) {
+            if ((i & 1) == 0) {
+              v = (data[uv++] & 0xFF) - 128;
+              u = (data[uv++] & 0xFF) - 128;
+            }
+            out[o] = toARGB(data[y] & 0xFF, u, v);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Extracts the luminance plane of an NV21 frame.
+   * @param data    the NV21 frame
+   * @param w       the frame width
+   * @param h       the frame height
+   * @param stride  the frame stride
+   * @param out     the output array, of at least {@code w*h} elements.
+   */
+  public static void nv21ToGray(final byte[] data, final int w, final int h, final int stride,
+                                final byte[] out) {
+    if (stride == w) {
+      System.arraycopy(data, 0, out, 0, w*h);
+      return;
+    }
+    for (int j = 0; j < h; ++j)
+      System.arraycopy(data, j*stride, out, j*w, w);
+  }
+
+  /**
+   * Downscales a grayscale plane, averaging {@code factor x factor} boxes.
+   * <p>
+   * The output is of size {@code (w/factor) x (h/factor)}: the remaining right
+   * columns and bottom rows are ignored.
+   * @param data    the grayscale plane, e.g the luminance plane of an NV21 frame.
+   * @param w       the plane width
+   * @param h       the plane height
+   * @param stride  the plane stride
+   * @param factor  the downscaling factor, at least 1.
+   * @param out     the output array, of at least {@code (w/factor)*(h/factor)} elements.
+   */
+  public static void downscale(final byte[] data, final int w, final int h, final int stride,
+                               final int factor, final byte[] out) {
+    if (factor < 1)
+      throw new IllegalArgumentException("Invalid downscaling factor: " + factor);
+    final int ow = w/factor;
+    final int oh = h/factor;
+    final int area = factor*factor;
+    run(oh, w*h, new Stripe() {
+      @Override
+      void process(int from, int to) {
+        for (int j = from; j < to; ++j) {
+          int o = j*ow;
+          for (int i = 0; i < ow; ++i, ++o) {
+            int sum = 0;
+            int p = j*factor*stride + i*factor;
+            for (int y = 0; y < factor; ++y, p += stride) {
+              for (int x = 0; x < factor; ++x)
+                sum += data[p+x] & 0xFF;
+            }
+            out[o] = (byte)(sum/area);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Rotates a grayscale plane clockwise.
+   * @param data    the grayscale plane
+   * @param w       the plane width
+   * @param h       the plane height
+   * @param stride  the plane stride
+   * @param degrees the rotation, among 0, 90, 180 and 270.
+   * @param out     the output array, of at least {@code w*h} elements. Its width is
+   *                {@code h} if rotated by 90 or 270 degrees, {@code w} otherwise.
+   */
+  public static void rotate(final byte[] data, final int w, final int h, final int stride,
+                            final int degrees, final byte[] out) {
+    checkRotation(degrees);
+    run(h, w*h, new Stripe() {
+      @Override
+      void process(int from, int to) {
+        for (int j = from; j < to; ++j) {
+          int p = j*stride;
+          for (int i = 0; i < w; ++i)
+            out[rotatedIndex(i, j, w, h, degrees)] = data[p+i];
+        }
+      }
+    });
+  }
+
+  /**
+   * Rotates ARGB pixels clockwise.
+   * @param data    the packed ARGB pixels
+   * @param w       the image width
+   * @param h       the image height
+   * @param degrees the rotation, among 0, 90, 180 and 270.
+   * @param out     the output array, of at least {@code w*h} elements. Its width is
+   *                {@code h} if rotated by 90 or 270 degrees, {@code w} otherwise.
+   */
+  public static void rotate(final int[] data, final int w, final int h, final int degrees,
+                            final int[] out) {
+    checkRotation(degrees);
+    run(h, w*h, new Stripe() {
+      @Override
+      void process(int from, int to) {
+        for (int j = from; j < to; ++j) {
+          int p = j*w;
+          for (int i = 0; i < w; ++i)
+            out[rotatedIndex(i, j, w, h, degrees)] = data[p+i];
+        }
+      }
+    });
+  }
+
+  private static void checkRotation(int degrees) {
+    if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270)
+      throw new IllegalArgumentException("Invalid rotation: " + degrees);
+  }
+
+  /* index in the rotated output of the input pixel (i, j) */
+  private static int rotatedIndex(int i, int j, int w, int h, int degrees) {
+    switch (degrees) {
+      case 90:  return i*h + (h-1-j);
+      case 180: return (h-1-j)*w + (w-1-i);
+      case 270: return (w-1-i)*h + j;
+      default:  return j*w + i;
+    }
+  }
+
+  /* ITU-R BT.601 conversion, using fixed-point arithmetic */
+  private static int toARGB(int y, int u, int v) {
+    int c = 1192*Math.max(0, y-16);
+    int r = c + 1634*v;
+    int g = c - 833*v - 400*u;
+    int b = c + 2066*u;
+    r = r < 0 ? 0 : (r > 262143 ? 262143 : r);
+    g = g < 0 ? 0 : (g > 262143 ? 262143 : g);
+    b = b < 0 ? 0 : (b > 262143 ? 262143 : b);
+    return 0xFF000000 | ((r << 6) & 0xFF0000) | ((g >> 2) & 0xFF00) | ((b >> 10) & 0xFF);
+  }
+
+  /**
+   * A task processing a range of rows.
+   */
+  private static abstract class Stripe {
+    /* processes the rows in [from, to) */
+    abstract void process(int from, int to);
+  }
+
+  /**
+   * Runs a task over a number of rows, by stripes spread across the cores
+   * if the frame is large enough.
+   * <p>
+   * Returns once every stripe is processed, even if the calling thread is
+   * interrupted meanwhile. An exception thrown while processing a stripe is
+   * rethrown on the calling thread.
+   */
+  private static void run(int rows, int pixels, final Stripe s) {
+    int n = Math.min(CORES, rows);
+    if (n <= 1 || pixels < PARALLEL_THRESHOLD) {
+      s.process(0, rows);
+      return;
+    }
+    ExecutorService e = getExecutor();
+    final CountDownLatch done = new CountDownLatch(n-1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    int step = (rows + n - 1)/n;
+    for (int k = 1; k < n; ++k) {
+      final int from = k*step;
+      final int to = Math.min(rows, from + step);
+      e.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (from < to)
+              s.process(from, to);
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    // the calling thread processes the first stripe, but the output must not
+    // be given back before the other stripes are done with it.
+    try {
+      s.process(0, Math.min(rows, step));
+    } finally {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+    Throwable t = failure.get();
+    if (t instanceof RuntimeException)
+      throw (RuntimeException)t;
+    if (t instanceof Error)
+      throw (Error)t;
+  }
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(CORES - 1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "YuvConverter");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+}
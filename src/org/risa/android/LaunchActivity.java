@@ -4,6 +4,7 @@ import java.util.Locale;
 
 import org.risa.android.RecognitionFragment.FoundTargetListener;
 import org.risa.android.data.Target;
+import org.risa.android.data.TargetParcel;
 import org.risa.android.target.TargetActivity;
 import org.risa.android.util.Constants;
 
@@ -226,7 +227,7 @@ ActionBar.TabListener, SyncListener, FoundTargetListener {
 		// Launch the found activity once we identified the target.
 		if (target != null) {
 			Intent i = new Intent(this, TargetActivity.class);
-			i.putExtra(TargetActivity.ARG_IMAGE_NAME, target.getUID());
+			i.putExtra(TargetActivity.ARG_TARGET, new TargetParcel(target));
 			startActivity(i);
 		}
 	}
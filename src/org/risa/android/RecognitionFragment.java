@@ -1,8 +1,9 @@
 package org.risa.android;
 
-import org.risa.android.data.DemoTarget;
+import org.risa.android.data.Item;
 import org.risa.android.data.Target;
-import org.risa.android.util.DemoTargetManager;
+import org.risa.android.data.TargetRepository;
+import org.risa.android.views.HotspotOverlayView;
 
 import android.app.Activity;
 import android.os.Bundle;
@@ -23,7 +24,8 @@ import com.moodstocks.android.ScannerSession;
  * 
  * @author Michael Hotan, michael.hotan@gmail.com
  */
-public class RecognitionFragment extends Fragment implements ScannerSession.Listener {
+public class RecognitionFragment extends Fragment implements ScannerSession.Listener,
+		HotspotOverlayView.OnHotspotClickListener {
 
 	/**
 	 * Handles both image and QRCode recognition.
@@ -46,6 +48,25 @@ public class RecognitionFragment extends Fragment implements ScannerSession.List
 	 */
 	private FoundTargetListener mFoundListener;
 
+	/**
+	 * Overlay showing the hotspots of the recognized target on the preview.
+	 */
+	private HotspotOverlayView mOverlay;
+
+	/**
+	 * Screen rotation, cached as the view is re-created on rotation.
+	 */
+	private int mRotation;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		// Keep this fragment, and therefore the scanner session, across
+		// configuration changes so the camera does not have to be reopened.
+		setRetainInstance(true);
+	}
+
 	@Override
 	public View onCreateView (LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 		View view = inflater.inflate(R.layout.activity_recognize, container, false);
@@ -54,16 +75,30 @@ public class RecognitionFragment extends Fragment implements ScannerSession.List
 		// get the camera preview surface & result text view
 		SurfaceView preview = (SurfaceView) view.findViewById(R.id.preview);
 
-		// Create a scanner session
-		try {
-			mSession = new ScannerSession(getActivity(), this, preview);
-		} catch (MoodstocksError e) {
-			e.log();
+		if (mSession != null) {
+			// Session retained through a configuration change,
+			// only move the preview to the new surface.
+			mSession.attach(getActivity(), preview);
+		} else {
+			// Create a scanner session
+			try {
+				mSession = new ScannerSession(getActivity(), this, preview);
+			} catch (MoodstocksError e) {
+				e.log();
+			}
+
+			// set session options
+			mSession.setOptions(ScanOptions);
+			mSession.setExtras(Result.Extra.HOMOGRAPHY);
+			mSession.noPartialMatching = true;
+			// Only pay for small target recognition when the default mode keeps missing.
+			mSession.adaptiveSmallTarget = true;
 		}
 
-		// set session options
-		mSession.setOptions(ScanOptions);
-		mSession.noPartialMatching = true;
+		// Overlay projecting the target hotspots on the live preview.
+		mOverlay = (HotspotOverlayView) view.findViewById(R.id.overlay);
+		mOverlay.setOnHotspotClickListener(this);
+		mRotation = getActivity().getWindowManager().getDefaultDisplay().getRotation();
 		
 		// Text view that shows result.
 		mResultTextView = (TextView) view.findViewById(R.id.scan_result);
@@ -86,26 +121,48 @@ public class RecognitionFragment extends Fragment implements ScannerSession.List
 	}
 
 	@Override
-	public void onDestroy() {
-		super.onDestroy();
-		// close the scanner session
-		if (mSession != null)
+	public void onDestroyView() {
+		super.onDestroyView();
+		// Keep the session alive if the activity is only being re-created.
+		if (getActivity().isChangingConfigurations()) return;
+
+		// close the scanner session along with its preview.
+		// The pager destroys the view of far away pages.
+		if (mSession != null) {
 			mSession.close();
+			mSession = null;
+		}
 	}
 
 	@Override
 	public void onResume() {
 		super.onResume();
 
-		// start the scanner session
-		mSession.resume();
+		// start the scanner session, only if the page is the one shown.
+		if (mSession != null && getUserVisibleHint())
+			mSession.restore();
 	}
 
 	@Override
 	public void onPause() {
 		super.onPause();
 		// pause the scanner session
-		mSession.pause();
+		if (mSession != null)
+			mSession.pause();
+	}
+
+	@Override
+	public void setUserVisibleHint(boolean isVisibleToUser) {
+		super.setUserVisibleHint(isVisibleToUser);
+
+		// The pager keeps this fragment resumed while other tabs are shown.
+		// Stop processing frames nobody can see, and release the camera
+		// if the user does not come back shortly.
+		if (mSession == null) return;
+		if (!isVisibleToUser)
+			mSession.suspend();
+		else if (isResumed())
+			mSession.restore();
 	}
 
 	@Override
@@ -115,18 +172,31 @@ public class RecognitionFragment extends Fragment implements ScannerSession.List
 			mResultTextView.setText(String.format("Scan result: %s", uniqueName));
 			mResultTextView.setVisibility(View.VISIBLE);
 			
-			Target target = DemoTargetManager.getInstance(
-					getActivity().getApplicationContext()).getDemoTarget(uniqueName);
-			if (target != null) {
-				// Notify the activity
+			Target target = mOverlay.getTarget();
+			if (target == null || !uniqueName.equals(target.getUID())) {
+				target = TargetRepository.getInstance(
+						getActivity().getApplicationContext()).getTarget(uniqueName);
+				mOverlay.setTarget(target);
+			}
+			if (target != null && !mOverlay.update(result, mRotation)) {
+				// No pose to track the target with, notify the activity right away.
 				mFoundListener.onFoundDemoTarget(target);
 			} 
+		} else {
+			mOverlay.clear();
 		}
 	}
 
 	@Override
 	public void onScanFailed(MoodstocksError error) {
 		mResultTextView.setVisibility(View.INVISIBLE);
+		mOverlay.clear();
+	}
+
+	@Override
+	public void onHotspotClick(Target target, Item item) {
+		// Only leave the scanning loop once the user picked an item.
+		mFoundListener.onFoundDemoTarget(target);
 	}
 
 	@Override
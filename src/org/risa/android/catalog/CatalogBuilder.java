@@ -0,0 +1,61 @@
+package org.risa.android.catalog;
+
+import java.util.List;
+
+/**
+ * Receives the records of a catalog as they are read, e.g. by the {@link JsonCatalogReader}.
+ * <p>
+ * Records come in order: vendors before the prices referring to them, and each target 
+ * followed by its items, each item followed by its prices.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public interface CatalogBuilder {
+
+	/**
+	 * Adds a vendor.
+	 *
+	 * @param name Name of the vendor, referred to by prices.
+	 * @param url Home page of the vendor.
+	 * @param logo Name of the logo image, or null.
+	 */
+	public void addVendor(String name, String url, String logo);
+
+	/**
+	 * Starts a target.  The items added next belong to this target.
+	 *
+	 * @param uid Unique ID of the target.
+	 * @param name Human readable name of the target.
+	 * @param image Name of the target image.
+	 * @param width Width of the target image.
+	 * @param height Height of the target image.
+	 */
+	public void beginTarget(String uid, String name, String image, int width, int height);
+
+	/**
+	 * Adds an item to the current target.  The prices added next belong to this item.
+	 *
+	 * @param name Name of the item.
+	 * @param details Details of the item, or null.
+	 * @param x X coordinate of the item on the target image.
+	 * @param y Y coordinate of the item on the target image.
+	 * @param images Names of the item images, may be null.
+	 */
+	public void addItem(String name, String details, int x, int y, List<String> images);
+
+	/**
+	 * Adds a price to the current item.
+	 *
+	 * @param vendor Name of a vendor already added.
+	 * @param url Page of the item on the vendor site.
+	 * @param cents Price, in minor units of the currency (I.E. cents, yens for JPY).
+	 * @param currency ISO 4217 currency code, or null.
+	 */
+	public void addPrice(String vendor, String url, long cents, String currency);
+
+	/**
+	 * Ends the current target, once all its items and prices were added.
+	 */
+	public void endTarget();
+
+}
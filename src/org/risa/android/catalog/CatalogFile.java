@@ -0,0 +1,427 @@
+package org.risa.android.catalog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only view of a binary target catalog.
+ * <p>
+ * The catalog file is memory mapped and read in place: nothing is materialized when it is opened,
+ * and records are accessed through reusable flyweight views ({@link TargetRecord}, {@link ItemRecord},
+ * {@link PriceRecord}, {@link VendorRecord}) that only hold a record index.
+ * <p>
+ * All integers are big endian.  The file is laid out as follows:
+ * <pre>
+ * header      MAGIC, VERSION, then the count and offset of each section below
+ * uid index   (uid hash, target index) pairs sorted by hash
+ * targets     uid, name, image, width, height, first item, item count
+ * items       name, details, x, y, first price, price count, first image, image count
+ * prices      vendor, url, cents (8 bytes), currency
+ * vendors     name, url, logo
+ * images      string ids of the item image names
+ * strings     string count + 1 byte offsets, followed by the UTF-8 string data
+ * </pre>
+ * Strings are referenced by their index in the string table, -1 standing for no string.
+ * Use {@link CatalogWriter} to create catalogs.
+ * <p>
+ * Views are not thread safe, but the catalog itself can be shared between threads as long
+ * as each thread uses its own views.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class CatalogFile implements Closeable {
+
+	/**
+	 * Magic number identifying catalog files: "QCAT".
+	 */
+	public static final int MAGIC = 0x51434154;
+
+	/**
+	 * Current version of the format.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Marks the absence of string.
+	 */
+	public static final int NO_STRING = -1;
+
+	/*
+	 * Header layout, in bytes.  Each section is described by its entry count and byte offset.
+	 */
+	static final int HEADER_SIZE = 64;
+	static final int SECTION_INDEX = 0;
+	static final int SECTION_TARGETS = 1;
+	static final int SECTION_ITEMS = 2;
+	static final int SECTION_PRICES = 3;
+	static final int SECTION_VENDORS = 4;
+	static final int SECTION_IMAGES = 5;
+	static final int SECTION_STRINGS = 6;
+	static final int SECTION_COUNT = 7;
+
+	/*
+	 * Record sizes, in bytes.
+	 */
+	static final int INDEX_SIZE = 8;
+	static final int TARGET_SIZE = 28;
+	static final int ITEM_SIZE = 32;
+	static final int PRICE_SIZE = 20;
+	static final int VENDOR_SIZE = 12;
+	static final int IMAGE_SIZE = 4;
+
+	private static final String CHARSET = "UTF-8";
+
+	private final RandomAccessFile mFile;
+	private final ByteBuffer mBuffer;
+	private final int[] mCounts = new int[SECTION_COUNT];
+	private final int[] mOffsets = new int[SECTION_COUNT];
+	private final int mStringData;
+
+	/**
+	 * Opens and maps a catalog file.  Only the header is read.
+	 *
+	 * @param file Catalog file to open.
+	 * @throws IOException if the file cannot be read or is not a valid catalog.
+	 */
+	public CatalogFile(File file) throws IOException {
+		if (file == null)
+			throw new NullPointerException(CatalogFile.class.getSimpleName() + "() Illegal null file");
+		mFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = mFile.getChannel();
+			mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			readHeader();
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		} catch (RuntimeException e) {
+			mFile.close();
+			throw e;
+		}
+		mStringData = mOffsets[SECTION_STRINGS] + 4 * (mCounts[SECTION_STRINGS] + 1);
+	}
+
+	/**
+	 * Wraps an in memory catalog, e.g. one that was just written.
+	 *
+	 * @param buffer Buffer holding the whole catalog, from position 0.
+	 * @throws IOException if the buffer does not hold a valid catalog.
+	 */
+	public CatalogFile(ByteBuffer buffer) throws IOException {
+		if (buffer == null)
+			throw new NullPointerException(CatalogFile.class.getSimpleName() + "() Illegal null buffer");
+		mFile = null;
+		mBuffer = buffer;
+		readHeader();
+		mStringData = mOffsets[SECTION_STRINGS] + 4 * (mCounts[SECTION_STRINGS] + 1);
+	}
+
+	private void readHeader() throws IOException {
+		if (mBuffer.capacity() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC)
+			throw new IOException("Not a target catalog");
+		int version = mBuffer.getInt(4);
+		if (version != VERSION)
+			throw new IOException("Unsupported catalog version: " + version);
+		int[] sizes = { INDEX_SIZE, TARGET_SIZE, ITEM_SIZE, PRICE_SIZE, VENDOR_SIZE, IMAGE_SIZE, 4 };
+		for (int i = 0; i < SECTION_COUNT; ++i) {
+			mCounts[i] = mBuffer.getInt(8 + 8 * i);
+			mOffsets[i] = mBuffer.getInt(12 + 8 * i);
+			// Strings have one more offset than strings, the data size is checked below.
+			int n = i == SECTION_STRINGS ? mCounts[i] + 1 : mCounts[i];
+			if (mCounts[i] < 0 || mOffsets[i] < HEADER_SIZE
+					|| (long) mOffsets[i] + (long) n * sizes[i] > mBuffer.capacity())
+				throw new IOException("Corrupted catalog section " + i);
+		}
+		int n = mCounts[SECTION_STRINGS];
+		long end = (long) mOffsets[SECTION_STRINGS] + 4L * (n + 1) + mBuffer.getInt(mOffsets[SECTION_STRINGS] + 4 * n);
+		if (end > mBuffer.capacity())
+			throw new IOException("Corrupted catalog strings");
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mFile != null)
+			mFile.close();
+	}
+
+	/**
+	 * @return Number of targets in the catalog.
+	 */
+	public int getTargetCount() {
+		return mCounts[SECTION_TARGETS];
+	}
+
+	/**
+	 * @return Number of vendors in the catalog.
+	 */
+	public int getVendorCount() {
+		return mCounts[SECTION_VENDORS];
+	}
+
+	/**
+	 * @return Number of strings in the string table.
+	 */
+	public int getStringCount() {
+		return mCounts[SECTION_STRINGS];
+	}
+
+	/**
+	 * Looks up a target by UID, using the UID index.
+	 *
+	 * @param uid UID to look for.
+	 * @return The index of the target, -1 if it is not in the catalog.
+	 */
+	public int indexOf(String uid) {
+		if (uid == null) return -1;
+		byte[] key = encode(uid);
+		int hash = uid.hashCode();
+		int base = mOffsets[SECTION_INDEX];
+		int lo = 0, hi = mCounts[SECTION_INDEX] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int h = mBuffer.getInt(base + mid * INDEX_SIZE);
+			if (h < hash) lo = mid + 1;
+			else if (h > hash) hi = mid - 1;
+			else {
+				// Walk back to the first entry with this hash, then check all the collisions.
+				while (mid > 0 && mBuffer.getInt(base + (mid - 1) * INDEX_SIZE) == hash)
+					--mid;
+				for (; mid < mCounts[SECTION_INDEX] && mBuffer.getInt(base + mid * INDEX_SIZE) == hash; ++mid) {
+					int target = mBuffer.getInt(base + mid * INDEX_SIZE + 4);
+					if (stringEquals(getInt(SECTION_TARGETS, TARGET_SIZE, target, 0), key))
+						return target;
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes a string of the string table.
+	 *
+	 * @param id Index of the string.
+	 * @return The string, or null for {@link #NO_STRING}.
+	 */
+	public String getString(int id) {
+		if (id == NO_STRING) return null;
+		checkIndex(id, mCounts[SECTION_STRINGS]);
+		int start = stringStart(id);
+		int length = stringStart(id + 1) - start;
+		byte[] bytes = new byte[length];
+		ByteBuffer b = mBuffer.duplicate();
+		b.position(start);
+		b.get(bytes);
+		try {
+			return new String(bytes, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int stringStart(int id) {
+		return mStringData + mBuffer.getInt(mOffsets[SECTION_STRINGS] + 4 * id);
+	}
+
+	/**
+	 * Compares a string of the table with encoded bytes without decoding it.
+	 */
+	private boolean stringEquals(int id, byte[] key) {
+		if (id < 0 || id >= mCounts[SECTION_STRINGS]) return false;
+		int start = stringStart(id);
+		if (stringStart(id + 1) - start != key.length) return false;
+		for (int i = 0; i < key.length; ++i) {
+			if (mBuffer.get(start + i) != key[i]) return false;
+		}
+		return true;
+	}
+
+	private int getInt(int section, int size, int index, int field) {
+		return mBuffer.getInt(mOffsets[section] + index * size + field);
+	}
+
+	private long getLong(int section, int size, int index, int field) {
+		return mBuffer.getLong(mOffsets[section] + index * size + field);
+	}
+
+	private static void checkIndex(int index, int count) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Invalid catalog index " + index + ", count is " + count);
+	}
+
+	static byte[] encode(String s) {
+		try {
+			return s.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return A new reusable view over the targets.
+	 */
+	public TargetRecord newTargetRecord() {
+		return new TargetRecord();
+	}
+
+	/**
+	 * @return A new reusable view over the items.
+	 */
+	public ItemRecord newItemRecord() {
+		return new ItemRecord();
+	}
+
+	/**
+	 * @return A new reusable view over the prices.
+	 */
+	public PriceRecord newPriceRecord() {
+		return new PriceRecord();
+	}
+
+	/**
+	 * @return A new reusable view over the vendors.
+	 */
+	public VendorRecord newVendorRecord() {
+		return new VendorRecord();
+	}
+
+	/**
+	 * Flyweight view over a target record.
+	 */
+	public class TargetRecord {
+
+		private int mIndex = -1;
+
+		/**
+		 * Points this view to another target.
+		 *
+		 * @param index Index of the target.
+		 * @return this
+		 */
+		public TargetRecord moveTo(int index) {
+			checkIndex(index, mCounts[SECTION_TARGETS]);
+			mIndex = index;
+			return this;
+		}
+
+		public int getIndex() { return mIndex; }
+		public int getUID() { return field(0); }
+		public int getName() { return field(4); }
+		public int getImage() { return field(8); }
+		public int getWidth() { return field(12); }
+		public int getHeight() { return field(16); }
+		public int getFirstItem() { return field(20); }
+		public int getItemCount() { return field(24); }
+
+		private int field(int offset) {
+			return getInt(SECTION_TARGETS, TARGET_SIZE, mIndex, offset);
+		}
+	}
+
+	/**
+	 * Flyweight view over an item record.
+	 */
+	public class ItemRecord {
+
+		private int mIndex = -1;
+
+		/**
+		 * Points this view to another item.
+		 *
+		 * @param index Index of the item.
+		 * @return this
+		 */
+		public ItemRecord moveTo(int index) {
+			checkIndex(index, mCounts[SECTION_ITEMS]);
+			mIndex = index;
+			return this;
+		}
+
+		public int getIndex() { return mIndex; }
+		public int getName() { return field(0); }
+		public int getDetails() { return field(4); }
+		public int getX() { return field(8); }
+		public int getY() { return field(12); }
+		public int getFirstPrice() { return field(16); }
+		public int getPriceCount() { return field(20); }
+		public int getImageCount() { return field(28); }
+
+		/**
+		 * @param i Index of the image within this item.
+		 * @return String id of the image name.
+		 */
+		public int getImage(int i) {
+			checkIndex(i, getImageCount());
+			return getInt(SECTION_IMAGES, IMAGE_SIZE, field(24) + i, 0);
+		}
+
+		private int field(int offset) {
+			return getInt(SECTION_ITEMS, ITEM_SIZE, mIndex, offset);
+		}
+	}
+
+	/**
+	 * Flyweight view over a price record.
+	 */
+	public class PriceRecord {
+
+		private int mIndex = -1;
+
+		/**
+		 * Points this view to another price.
+		 *
+		 * @param index Index of the price.
+		 * @return this
+		 */
+		public PriceRecord moveTo(int index) {
+			checkIndex(index, mCounts[SECTION_PRICES]);
+			mIndex = index;
+			return this;
+		}
+
+		public int getIndex() { return mIndex; }
+		public int getVendor() { return field(0); }
+		public int getUrl() { return field(4); }
+		public long getCents() { return getLong(SECTION_PRICES, PRICE_SIZE, mIndex, 8); }
+		public int getCurrency() { return field(16); }
+
+		private int field(int offset) {
+			return getInt(SECTION_PRICES, PRICE_SIZE, mIndex, offset);
+		}
+	}
+
+	/**
+	 * Flyweight view over a vendor record.
+	 */
+	public class VendorRecord {
+
+		private int mIndex = -1;
+
+		/**
+		 * Points this view to another vendor.
+		 *
+		 * @param index Index of the vendor.
+		 * @return this
+		 */
+		public VendorRecord moveTo(int index) {
+			checkIndex(index, mCounts[SECTION_VENDORS]);
+			mIndex = index;
+			return this;
+		}
+
+		public int getIndex() { return mIndex; }
+		public int getName() { return field(0); }
+		public int getUrl() { return field(4); }
+		public int getLogo() { return field(8); }
+
+		private int field(int offset) {
+			return getInt(SECTION_VENDORS, VENDOR_SIZE, mIndex, offset);
+		}
+	}
+
+}
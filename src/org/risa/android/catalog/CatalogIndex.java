@@ -0,0 +1,641 @@
+package org.risa.android.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.risa.android.data.Item;
+import org.risa.android.data.PurchaseDetails;
+import org.risa.android.data.Target;
+import org.risa.android.data.TargetRepository;
+import org.risa.android.data.Vendor;
+
+/**
+ * In memory query engine over the items of a catalog, I.E. "all the items under $50 from Nordstrom",
+ * "the cheapest offer of each target" or "the items whose name starts with 'dre'".
+ * <p>
+ * The index is built once from a snapshot of the targets, and holds the following secondary indexes:
+ * <ul>
+ * <li>a price index: every offer (item and purchase details) of the catalog, sorted by currency then
+ * lowest cost,</li>
+ * <li>a vendor index: the positions of the offers of each vendor in the price index,</li>
+ * <li>a name index: every word of every item name, sorted, for prefix lookups.</li>
+ * </ul>
+ * Queries pick the most selective of these indexes to enumerate candidate offers in that order, then
+ * filter them with the remaining criteria, so cheapest first top K queries stop as soon as K offers
+ * match.  Costs in different currencies are never compared: prices are ranked within each currency.
+ * Indexes are immutable and can be queried from any thread.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class CatalogIndex {
+
+	/**
+	 * Condition on an offer, composable with {@link CatalogIndex#and(Predicate...)},
+	 * {@link CatalogIndex#or(Predicate...)} and {@link CatalogIndex#not(Predicate)}.
+	 */
+	public static interface Predicate {
+
+		/**
+		 * @param target Target of the item.
+		 * @param item Item offered.
+		 * @param offer Purchase details of the offer.
+		 * @return Whether the offer matches.
+		 */
+		public boolean matches(Target target, Item item, PurchaseDetails offer);
+	}
+
+	/**
+	 * An offer matching a query.
+	 */
+	public static class Match {
+
+		private final Target mTarget;
+		private final Item mItem;
+		private final PurchaseDetails mOffer;
+
+		Match(Target target, Item item, PurchaseDetails offer) {
+			mTarget = target;
+			mItem = item;
+			mOffer = offer;
+		}
+
+		/**
+		 * @return Target the item is on.
+		 */
+		public Target getTarget() {
+			return mTarget;
+		}
+
+		/**
+		 * @return Item offered.
+		 */
+		public Item getItem() {
+			return mItem;
+		}
+
+		/**
+		 * @return Purchase details of the offer.
+		 */
+		public PurchaseDetails getPurchaseDetails() {
+			return mOffer;
+		}
+
+		@Override
+		public String toString() {
+			return mItem.getName() + " @ " + mOffer.getVendor().getName() + " " + mOffer.getCents();
+		}
+	}
+
+	private static final int[] NO_POSITIONS = new int[0];
+
+	/*
+	 * Items, and the index of their target.
+	 */
+	private final Target[] mTargets;
+	private final Item[] mItems;
+	private final int[] mItemTarget;
+
+	/*
+	 * Price index: all the offers in {@link PurchaseDetails#LOWEST_COST} order, with their currency,
+	 * cost and item index.  Currencies are indexes in the sorted currency codes.
+	 */
+	private final String[] mCurrencies;
+	private final PurchaseDetails[] mOffers;
+	private final int[] mOfferCurrency;
+	private final long[] mOfferCents;
+	private final int[] mOfferItem;
+
+	/*
+	 * Positions in the price index of the offers of each item and each vendor, ascending so in price
+	 * index order as well.
+	 */
+	private final int[][] mItemOffers;
+	private final Map<Vendor, int[]> mVendorOffers;
+
+	/*
+	 * Name index: lower case suffixes of item names starting at each word, sorted, with the item index.
+	 */
+	private final String[] mNameKeys;
+	private final int[] mNameItems;
+
+	/**
+	 * Indexes a snapshot of targets.
+	 *
+	 * @param targets Targets to index.
+	 */
+	public CatalogIndex(Collection<? extends Target> targets) {
+		if (targets == null)
+			throw new NullPointerException(CatalogIndex.class.getSimpleName() + "() Illegal null targets");
+		mTargets = targets.toArray(new Target[targets.size()]);
+
+		// Flatten the items and their offers.
+		List<Item> items = new ArrayList<Item>();
+		List<Integer> itemTarget = new ArrayList<Integer>();
+		List<Offer> offers = new ArrayList<Offer>();
+		for (int t = 0; t < mTargets.length; ++t) {
+			for (Item item : mTargets[t].getItems()) {
+				int i = items.size();
+				items.add(item);
+				itemTarget.add(t);
+				for (PurchaseDetails offer : item.getPurchaseDetails())
+					offers.add(new Offer(offer, i));
+			}
+		}
+		mItems = items.toArray(new Item[items.size()]);
+		mItemTarget = toArray(itemTarget);
+
+		// Sort the offers by currency, then lowest cost.
+		Offer[] order = offers.toArray(new Offer[offers.size()]);
+		Arrays.sort(order);
+		List<String> currencies = new ArrayList<String>();
+		mOffers = new PurchaseDetails[order.length];
+		mOfferCurrency = new int[order.length];
+		mOfferCents = new long[order.length];
+		mOfferItem = new int[order.length];
+		int[] itemOfferCounts = new int[mItems.length];
+		Map<Vendor, Integer> vendorCounts = new HashMap<Vendor, Integer>();
+		for (int p = 0; p < order.length; ++p) {
+			PurchaseDetails offer = order[p].mDetails;
+			mOffers[p] = offer;
+			if (currencies.isEmpty() || !currencies.get(currencies.size() - 1).equals(offer.getCurrency()))
+				currencies.add(offer.getCurrency());
+			mOfferCurrency[p] = currencies.size() - 1;
+			mOfferCents[p] = offer.getCents();
+			mOfferItem[p] = order[p].mItem;
+			++itemOfferCounts[mOfferItem[p]];
+			Integer n = vendorCounts.get(offer.getVendor());
+			vendorCounts.put(offer.getVendor(), n == null ? 1 : n + 1);
+		}
+
+		mCurrencies = currencies.toArray(new String[currencies.size()]);
+
+		// Group the offer positions by item and vendor, keeping them ascending.
+		mItemOffers = new int[mItems.length][];
+		for (int i = 0; i < mItems.length; ++i)
+			mItemOffers[i] = itemOfferCounts[i] == 0 ? NO_POSITIONS : new int[itemOfferCounts[i]];
+		Arrays.fill(itemOfferCounts, 0);
+		mVendorOffers = new HashMap<Vendor, int[]>();
+		for (Map.Entry<Vendor, Integer> e : vendorCounts.entrySet())
+			mVendorOffers.put(e.getKey(), new int[e.getValue()]);
+		Map<Vendor, Integer> vendorFill = new HashMap<Vendor, Integer>();
+		for (int p = 0; p < mOffers.length; ++p) {
+			int i = mOfferItem[p];
+			mItemOffers[i][itemOfferCounts[i]++] = p;
+			Vendor v = mOffers[p].getVendor();
+			Integer n = vendorFill.get(v);
+			int k = n == null ? 0 : n;
+			mVendorOffers.get(v)[k] = p;
+			vendorFill.put(v, k + 1);
+		}
+
+		// Index the name suffix starting at each word of each item name.
+		List<NameKey> keys = new ArrayList<NameKey>();
+		for (int i = 0; i < mItems.length; ++i) {
+			String name = mItems[i].getName().toLowerCase(Locale.US);
+			for (int c = 0; c < name.length(); ++c) {
+				if (Character.isLetterOrDigit(name.charAt(c))
+						&& (c == 0 || !Character.isLetterOrDigit(name.charAt(c - 1))))
+					keys.add(new NameKey(name.substring(c), i));
+			}
+		}
+		NameKey[] sortedKeys = keys.toArray(new NameKey[keys.size()]);
+		Arrays.sort(sortedKeys);
+		mNameKeys = new String[sortedKeys.length];
+		mNameItems = new int[sortedKeys.length];
+		for (int k = 0; k < sortedKeys.length; ++k) {
+			mNameKeys[k] = sortedKeys[k].mKey;
+			mNameItems[k] = sortedKeys[k].mItem;
+		}
+	}
+
+	/**
+	 * Offer of an item, sorted while building the price index.
+	 */
+	private static class Offer implements Comparable<Offer> {
+		final PurchaseDetails mDetails;
+		final int mItem;
+
+		Offer(PurchaseDetails details, int item) {
+			mDetails = details;
+			mItem = item;
+		}
+
+		@Override
+		public int compareTo(Offer another) {
+			return PurchaseDetails.LOWEST_COST.compare(mDetails, another.mDetails);
+		}
+	}
+
+	/**
+	 * Name key of an item, sorted while building the name index.
+	 */
+	private static class NameKey implements Comparable<NameKey> {
+		final String mKey;
+		final int mItem;
+
+		NameKey(String key, int item) {
+			mKey = key;
+			mItem = item;
+		}
+
+		@Override
+		public int compareTo(NameKey another) {
+			return mKey.compareTo(another.mKey);
+		}
+	}
+
+	/**
+	 * Indexes all the targets of a repository, building the ones that were not yet.
+	 *
+	 * @param repository Repository to index.
+	 * @return The index.
+	 */
+	public static CatalogIndex of(TargetRepository repository) {
+		List<Target> targets = new ArrayList<Target>(repository.size());
+		for (String uid : repository.getUIDs()) {
+			Target t = repository.getTarget(uid);
+			if (t != null)
+				targets.add(t);
+		}
+		return new CatalogIndex(targets);
+	}
+
+	/**
+	 * @return Number of indexed items.
+	 */
+	public int getItemCount() {
+		return mItems.length;
+	}
+
+	/**
+	 * @return Number of indexed offers.
+	 */
+	public int getOfferCount() {
+		return mOffers.length;
+	}
+
+	/**
+	 * @return A new query over this index, matching every offer.
+	 */
+	public Query query() {
+		return new Query();
+	}
+
+	/**
+	 * @param predicates Predicates to combine.
+	 * @return A predicate matching the offers matched by all the predicates.
+	 */
+	public static Predicate and(final Predicate... predicates) {
+		return new Predicate() {
+			@Override
+			public boolean matches(Target target, Item item, PurchaseDetails offer) {
+				for (Predicate p : predicates) {
+					if (!p.matches(target, item, offer)) return false;
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @param predicates Predicates to combine.
+	 * @return A predicate matching the offers matched by any of the predicates.
+	 */
+	public static Predicate or(final Predicate... predicates) {
+		return new Predicate() {
+			@Override
+			public boolean matches(Target target, Item item, PurchaseDetails offer) {
+				for (Predicate p : predicates) {
+					if (p.matches(target, item, offer)) return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param predicate Predicate to negate.
+	 * @return A predicate matching the offers not matched by the predicate.
+	 */
+	public static Predicate not(final Predicate predicate) {
+		return new Predicate() {
+			@Override
+			public boolean matches(Target target, Item item, PurchaseDetails offer) {
+				return !predicate.matches(target, item, offer);
+			}
+		};
+	}
+
+	/**
+	 * A query over the index.  Criteria are combined with a logical and.
+	 * <p>
+	 * Queries are not thread safe, but several queries can run concurrently on the same index.
+	 */
+	public class Query {
+
+		private Vendor mVendor;
+		private String mCurrency;
+		private long mMinCents = 0;
+		private long mMaxCents = Long.MAX_VALUE;
+		private String mPrefix;
+		private final List<Predicate> mPredicates = new ArrayList<Predicate>();
+		private boolean mDistinctItems = false;
+		private boolean mDistinctTargets = false;
+		private Comparator<Match> mOrder;
+		private int mLimit = Integer.MAX_VALUE;
+
+		/**
+		 * Positions of the name prefix candidates, when they drive the query.
+		 */
+		private int[] mNameCandidates;
+
+		private Query() {}
+
+		/**
+		 * Only match the offers of a vendor.
+		 *
+		 * @param vendor The vendor.
+		 * @return this
+		 */
+		public Query vendor(Vendor vendor) {
+			mVendor = vendor;
+			return this;
+		}
+
+		/**
+		 * Only match the offers in a currency.  Price bounds are in minor units of
+		 * the offers' currency, so they are only meaningful along with this criterion for
+		 * catalogs mixing currencies.  Along with this criterion, price bounds are looked up
+		 * in the price index instead of being checked on each candidate.
+		 *
+		 * @param currency ISO 4217 code of the currency.
+		 * @return this
+		 */
+		public Query currency(String currency) {
+			mCurrency = currency;
+			return this;
+		}
+
+		/**
+		 * Only match the offers whose cost is within bounds.
+		 *
+		 * @param minCents Lowest cost, inclusive, in minor units (I.E. cents).
+		 * @param maxCents Highest cost, inclusive, in minor units (I.E. cents).
+		 * @return this
+		 */
+		public Query price(long minCents, long maxCents) {
+			mMinCents = minCents;
+			mMaxCents = maxCents;
+			return this;
+		}
+
+		/**
+		 * Only match the items with a word of their name starting with a prefix, case insensitive.
+		 *
+		 * @param prefix Prefix of the name, may span several words.
+		 * @return this
+		 */
+		public Query namePrefix(String prefix) {
+			mPrefix = prefix == null ? null : prefix.toLowerCase(Locale.US);
+			return this;
+		}
+
+		/**
+		 * Only match the offers matching a predicate.
+		 *
+		 * @param predicate The predicate.
+		 * @return this
+		 */
+		public Query where(Predicate predicate) {
+			if (predicate != null)
+				mPredicates.add(predicate);
+			return this;
+		}
+
+		/**
+		 * Only keep the cheapest matching offer of each item.
+		 *
+		 * @return this
+		 */
+		public Query distinctItems() {
+			mDistinctItems = true;
+			return this;
+		}
+
+		/**
+		 * Only keep the cheapest matching offer of each target.
+		 *
+		 * @return this
+		 */
+		public Query distinctTargets() {
+			mDistinctTargets = true;
+			return this;
+		}
+
+		/**
+		 * Orders the results.  By default results are in order of currency, then lowest cost.
+		 *
+		 * @param order Order of the results.
+		 * @return this
+		 */
+		public Query orderBy(Comparator<Match> order) {
+			mOrder = order;
+			return this;
+		}
+
+		/**
+		 * Keeps only the first results.
+		 *
+		 * @param k Maximum number of results.
+		 * @return this
+		 */
+		public Query limit(int k) {
+			if (k < 0)
+				throw new IllegalArgumentException("Illegal negative limit: " + k);
+			mLimit = k;
+			return this;
+		}
+
+		/**
+		 * Runs the query.
+		 *
+		 * @return The matching offers, in the requested order.
+		 */
+		public List<Match> list() {
+			if (mLimit == 0 || mMinCents > mMaxCents)
+				return Collections.emptyList();
+
+			int[] candidates = candidates();
+			int from = 0;
+			int to = candidates == null ? mOffers.length : candidates.length;
+			if (mCurrency != null) {
+				int currency = Arrays.binarySearch(mCurrencies, mCurrency);
+				if (currency < 0)
+					return Collections.emptyList();
+				from = lowerBound(candidates, currency, mMinCents);
+				to = upperBound(candidates, currency, mMaxCents);
+			}
+
+			boolean[] seenItems = mDistinctItems ? new boolean[mItems.length] : null;
+			boolean[] seenTargets = mDistinctTargets ? new boolean[mTargets.length] : null;
+			List<Match> results = new ArrayList<Match>();
+			for (int c = from; c < to; ++c) {
+				int p = candidates == null ? c : candidates[c];
+				int i = mOfferItem[p];
+				int t = mItemTarget[i];
+				PurchaseDetails offer = mOffers[p];
+				if (mVendor != null && !mVendor.equals(offer.getVendor())) continue;
+				if (mCurrency == null && (mOfferCents[p] < mMinCents || mOfferCents[p] > mMaxCents)) continue;
+				if (mPrefix != null && candidates != mNameCandidates && !nameMatches(i)) continue;
+				if (seenItems != null && seenItems[i]) continue;
+				if (seenTargets != null && seenTargets[t]) continue;
+				if (!matches(mTargets[t], mItems[i], offer)) continue;
+				if (seenItems != null) seenItems[i] = true;
+				if (seenTargets != null) seenTargets[t] = true;
+				results.add(new Match(mTargets[t], mItems[i], offer));
+				// Candidates come in price index order, the first matches are the top K.
+				if (mOrder == null && results.size() == mLimit)
+					break;
+			}
+			if (mOrder != null) {
+				Collections.sort(results, mOrder);
+				if (results.size() > mLimit)
+					results = new ArrayList<Match>(results.subList(0, mLimit));
+			}
+			return results;
+		}
+
+		/**
+		 * Picks the smallest list of candidate offers, in ascending price index positions.
+		 *
+		 * @return The candidate positions, or null for all the offers.
+		 */
+		private int[] candidates() {
+			int[] best = null;
+			int size = mOffers.length;
+			if (mVendor != null) {
+				best = mVendorOffers.get(mVendor);
+				if (best == null) best = NO_POSITIONS;
+				size = best.length;
+			}
+			mNameCandidates = null;
+			if (mPrefix != null) {
+				int lo = prefixStart(mPrefix);
+				int hi = prefixEnd(mPrefix, lo);
+				// Estimate the offers of the matching items before collecting them.
+				long estimate = 0;
+				for (int k = lo; k < hi && estimate < size; ++k)
+					estimate += mItemOffers[mNameItems[k]].length;
+				if (estimate < size) {
+					mNameCandidates = nameCandidates(lo, hi);
+					best = mNameCandidates;
+				}
+			}
+			return best;
+		}
+
+		private int[] nameCandidates(int lo, int hi) {
+			boolean[] items = new boolean[mItems.length];
+			int count = 0;
+			for (int k = lo; k < hi; ++k) {
+				int i = mNameItems[k];
+				if (!items[i]) {
+					items[i] = true;
+					count += mItemOffers[i].length;
+				}
+			}
+			int[] positions = new int[count];
+			int n = 0;
+			for (int i = 0; i < items.length; ++i) {
+				if (items[i]) {
+					System.arraycopy(mItemOffers[i], 0, positions, n, mItemOffers[i].length);
+					n += mItemOffers[i].length;
+				}
+			}
+			Arrays.sort(positions);
+			return positions;
+		}
+
+		private boolean nameMatches(int item) {
+			String name = mItems[item].getName().toLowerCase(Locale.US);
+			for (int c = 0; c < name.length(); ++c) {
+				if (Character.isLetterOrDigit(name.charAt(c))
+						&& (c == 0 || !Character.isLetterOrDigit(name.charAt(c - 1)))
+						&& name.startsWith(mPrefix, c))
+					return true;
+			}
+			return false;
+		}
+
+		private boolean matches(Target target, Item item, PurchaseDetails offer) {
+			for (Predicate p : mPredicates) {
+				if (!p.matches(target, item, offer)) return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return Index of the first candidate in the currency, or a later one, costing at least cents.
+	 */
+	private int lowerBound(int[] candidates, int currency, long cents) {
+		int lo = 0, hi = candidates == null ? mOffers.length : candidates.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int p = candidates == null ? mid : candidates[mid];
+			if (mOfferCurrency[p] < currency || (mOfferCurrency[p] == currency && mOfferCents[p] < cents)) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return Index of the first candidate in a later currency, or in the currency costing more than cents.
+	 */
+	private int upperBound(int[] candidates, int currency, long cents) {
+		int lo = 0, hi = candidates == null ? mOffers.length : candidates.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int p = candidates == null ? mid : candidates[mid];
+			if (mOfferCurrency[p] < currency || (mOfferCurrency[p] == currency && mOfferCents[p] <= cents)) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return Index of the first name key not lower than the prefix.
+	 */
+	private int prefixStart(String prefix) {
+		int k = Arrays.binarySearch(mNameKeys, prefix);
+		return k < 0 ? -k - 1 : k;
+	}
+
+	/**
+	 * @return Index of the first name key after the keys starting with the prefix.
+	 */
+	private int prefixEnd(String prefix, int start) {
+		int lo = start, hi = mNameKeys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (mNameKeys[mid].startsWith(prefix)) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; ++i)
+			array[i] = list.get(i);
+		return array;
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.risa.android.catalog;
+
+import org.risa.android.data.Vendor;
+import org.risa.android.util.ResourceImageLoader;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+/**
+ * Resolves the names used in catalogs to application resources and vendors.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+class CatalogResources {
+
+	private final Resources mResources;
+	private final String mPackage;
+
+	CatalogResources(Context ctx) {
+		mResources = ctx.getResources();
+		mPackage = ctx.getPackageName();
+	}
+
+	/**
+	 * @param name Name of an image, as a raw or drawable resource.
+	 * @return The resource id of the image, 0 if there is no such resource.
+	 */
+	int getResourceId(String name) {
+		if (name == null) return 0;
+		int id = mResources.getIdentifier(name, "raw", mPackage);
+		if (id == 0)
+			id = mResources.getIdentifier(name, "drawable", mPackage);
+		return id;
+	}
+
+	/**
+	 * Resolves a catalog vendor to its canonical instance, registering it if needed.
+	 *
+	 * @param name Name of the vendor.
+	 * @param url Home page of the vendor.
+	 * @param logo Name of the logo image, or null.
+	 * @return The vendor.
+	 */
+	Vendor getVendor(String name, String url, String logo) {
+		Vendor v = Vendor.valueOf(name, url);
+		if (logo != null && v.getLogo() == null)
+			v.setLogo(new ResourceImageLoader(getResourceId(logo)));
+		return v;
+	}
+
+}
@@ -0,0 +1,139 @@
+package org.risa.android.catalog;
+
+import java.util.AbstractList;
+import java.util.Collection;
+
+import org.risa.android.data.DemoTarget;
+import org.risa.android.data.Item;
+import org.risa.android.data.ItemPoint;
+import org.risa.android.data.PurchaseDetails;
+import org.risa.android.data.RectangularDimension;
+import org.risa.android.data.Target;
+import org.risa.android.data.TargetSource;
+import org.risa.android.data.Vendor;
+import org.risa.android.util.ResourceImageLoader;
+
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Source of the targets of a binary {@link CatalogFile}.
+ * <p>
+ * Targets are materialized from the catalog records when they are first looked up.  Image names
+ * are resolved as raw, then drawable, resources of the application.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class CatalogSource implements TargetSource {
+
+	private final CatalogFile mCatalog;
+	private final CatalogResources mResources;
+
+	/**
+	 * Canonical vendors of the catalog, by vendor index.
+	 */
+	private final Vendor[] mVendors;
+
+	/**
+	 * Creates a source backed by a catalog.
+	 *
+	 * @param ctx Context used to resolve images.
+	 * @param catalog Opened catalog.
+	 */
+	public CatalogSource(Context ctx, CatalogFile catalog) {
+		if (catalog == null)
+			throw new NullPointerException(CatalogSource.class.getSimpleName() + "() Illegal null catalog");
+		mCatalog = catalog;
+		mResources = new CatalogResources(ctx);
+		mVendors = registerVendors();
+	}
+
+	/**
+	 * Registers all the vendors of the catalog at once.
+	 */
+	private Vendor[] registerVendors() {
+		int count = mCatalog.getVendorCount();
+		String[] names = new String[count];
+		String[] urls = new String[count];
+		CatalogFile.VendorRecord record = mCatalog.newVendorRecord();
+		for (int i = 0; i < count; ++i) {
+			record.moveTo(i);
+			names[i] = mCatalog.getString(record.getName());
+			urls[i] = mCatalog.getString(record.getUrl());
+		}
+		Vendor[] vendors = Vendor.valueOf(names, urls);
+		for (int i = 0; i < count; ++i) {
+			int logo = record.moveTo(i).getLogo();
+			if (logo != CatalogFile.NO_STRING && vendors[i].getLogo() == null)
+				vendors[i].setLogo(new ResourceImageLoader(getResourceId(logo)));
+		}
+		return vendors;
+	}
+
+	/**
+	 * @return The catalog backing this source.
+	 */
+	public CatalogFile getCatalog() {
+		return mCatalog;
+	}
+
+	@Override
+	public Collection<String> getUIDs() {
+		// UIDs are decoded one at a time while iterating.
+		return new AbstractList<String>() {
+			private final CatalogFile.TargetRecord mRecord = mCatalog.newTargetRecord();
+
+			@Override
+			public String get(int location) {
+				return mCatalog.getString(mRecord.moveTo(location).getUID());
+			}
+
+			@Override
+			public int size() {
+				return mCatalog.getTargetCount();
+			}
+		};
+	}
+
+	@Override
+	public Target loadTarget(String uid) {
+		int index = mCatalog.indexOf(uid);
+		if (index < 0) return null;
+
+		// Views are not thread safe, and this may be called from any thread.
+		CatalogFile.TargetRecord target = mCatalog.newTargetRecord().moveTo(index);
+		CatalogFile.ItemRecord item = mCatalog.newItemRecord();
+		CatalogFile.PriceRecord price = mCatalog.newPriceRecord();
+
+		RectangularDimension dimensions = new RectangularDimension(target.getWidth(), target.getHeight());
+		DemoTarget t = new DemoTarget(mCatalog.getString(target.getName()), uid,
+				getResourceId(target.getImage()), dimensions);
+
+		int firstItem = target.getFirstItem();
+		for (int i = 0; i < target.getItemCount(); ++i) {
+			item.moveTo(firstItem + i);
+			Item it = new ItemPoint(mCatalog.getString(item.getName()), dimensions, item.getX(), item.getY());
+			it.setDetails(mCatalog.getString(item.getDetails()));
+			for (int j = 0; j < item.getImageCount(); ++j)
+				it.addImage(new ResourceImageLoader(getResourceId(item.getImage(j))));
+			int firstPrice = item.getFirstPrice();
+			for (int j = 0; j < item.getPriceCount(); ++j) {
+				price.moveTo(firstPrice + j);
+				Vendor vendor = mVendors[price.getVendor()];
+				String url = mCatalog.getString(price.getUrl());
+				it.addPurchaseDetails(new PurchaseDetails(vendor, price.getCents(),
+						mCatalog.getString(price.getCurrency()), url == null ? vendor.getURL() : Uri.parse(url)));
+			}
+			t.addItem(it);
+		}
+		return t;
+	}
+
+	/**
+	 * @return The resource id of the image name, 0 if there is no such resource.
+	 */
+	private int getResourceId(int name) {
+		return mResources.getResourceId(mCatalog.getString(name));
+	}
+
+}
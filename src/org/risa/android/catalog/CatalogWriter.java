@@ -0,0 +1,256 @@
+package org.risa.android.catalog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds binary catalogs readable by {@link CatalogFile}, either from code or from a JSON catalog.
+ * Writers are meant to be used once, from a single thread.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class CatalogWriter implements CatalogBuilder {
+
+	private final Map<String, Integer> mStringIds = new HashMap<String, Integer>();
+	private final List<byte[]> mStrings = new ArrayList<byte[]>();
+	private final Map<String, Integer> mVendorIds = new HashMap<String, Integer>();
+	private final IntList mTargets = new IntList();
+	private final IntList mItems = new IntList();
+	private final IntList mPrices = new IntList();
+	private final IntList mVendors = new IntList();
+	private final IntList mImages = new IntList();
+	private final IntList mTargetHashes = new IntList();
+
+	/**
+	 * Growable array of ints, avoiding boxing.
+	 */
+	private static class IntList {
+		int[] data = new int[64];
+		int size;
+
+		void add(int v) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, size * 2);
+			data[size++] = v;
+		}
+	}
+
+	/**
+	 * Adds a vendor.  Vendors must be added before the prices referring to them.
+	 *
+	 * @param name Name of the vendor, referred to by prices.
+	 * @param url Home page of the vendor.
+	 * @param logo Name of the logo image, or null.
+	 */
+	@Override
+	public void addVendor(String name, String url, String logo) {
+		if (name == null)
+			throw new NullPointerException(CatalogWriter.class.getSimpleName() + ".addVendor() Illegal null name");
+		if (url == null)
+			throw new NullPointerException(CatalogWriter.class.getSimpleName() + ".addVendor() Illegal null url");
+		if (mVendorIds.containsKey(name))
+			throw new IllegalArgumentException("Duplicate vendor: " + name);
+		mVendorIds.put(name, mVendors.size / 3);
+		mVendors.add(string(name));
+		mVendors.add(string(url));
+		mVendors.add(string(logo));
+	}
+
+	/**
+	 * Starts a target.  The items added next belong to this target.
+	 *
+	 * @param uid Unique ID of the target.
+	 * @param name Human readable name of the target.
+	 * @param image Name of the target image.
+	 * @param width Width of the target image.
+	 * @param height Height of the target image.
+	 */
+	@Override
+	public void beginTarget(String uid, String name, String image, int width, int height) {
+		if (uid == null)
+			throw new NullPointerException(CatalogWriter.class.getSimpleName() + ".beginTarget() Illegal null uid");
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Illegal dimensions of target " + uid + ": " + width + "x" + height);
+		mTargetHashes.add(uid.hashCode());
+		mTargets.add(string(uid));
+		mTargets.add(string(name == null ? "" : name));
+		mTargets.add(string(image));
+		mTargets.add(width);
+		mTargets.add(height);
+		mTargets.add(mItems.size / 8);
+		mTargets.add(0);
+	}
+
+	/**
+	 * Adds an item to the current target.  The prices added next belong to this item.
+	 *
+	 * @param name Name of the item.
+	 * @param details Details of the item, or null.
+	 * @param x X coordinate of the item on the target image.
+	 * @param y Y coordinate of the item on the target image.
+	 * @param images Names of the item images, may be null.
+	 */
+	@Override
+	public void addItem(String name, String details, int x, int y, List<String> images) {
+		if (mTargets.size == 0)
+			throw new IllegalStateException("Items must be added to a target");
+		if (name == null)
+			throw new NullPointerException(CatalogWriter.class.getSimpleName() + ".addItem() Illegal null name");
+		if (x < 0 || y < 0)
+			throw new IllegalArgumentException("Illegal negative coordinates of item " + name);
+		++mTargets.data[mTargets.size - 1];
+		mItems.add(string(name));
+		mItems.add(string(details));
+		mItems.add(x);
+		mItems.add(y);
+		mItems.add(mPrices.size / 5);
+		mItems.add(0);
+		mItems.add(mImages.size);
+		mItems.add(images == null ? 0 : images.size());
+		if (images != null) {
+			for (String image : images)
+				mImages.add(string(image));
+		}
+	}
+
+	/**
+	 * Adds a price to the current item.
+	 *
+	 * @param vendor Name of a vendor already added.
+	 * @param url Page of the item on the vendor site.
+	 * @param cents Price, in minor units of the currency (I.E. cents, yens for JPY).
+	 * @param currency ISO 4217 currency code, or null.
+	 */
+	@Override
+	public void addPrice(String vendor, String url, long cents, String currency) {
+		if (mItems.size == 0)
+			throw new IllegalStateException("Prices must be added to an item");
+		Integer v = mVendorIds.get(vendor);
+		if (v == null)
+			throw new IllegalArgumentException("Unknown vendor: " + vendor);
+		if (cents < 0)
+			throw new IllegalArgumentException("Illegal negative price: " + cents);
+		++mItems.data[mItems.size - 3];
+		mPrices.add(v);
+		mPrices.add(string(url));
+		// Cents take two ints, written big endian like the long read by the catalog.
+		mPrices.add((int) (cents >>> 32));
+		mPrices.add((int) cents);
+		mPrices.add(string(currency));
+	}
+
+	/**
+	 * Reads a whole JSON catalog.
+	 *
+	 * @param json Reader of the JSON catalog.
+	 * @throws IOException if the JSON is malformed.
+	 * @see JsonCatalogReader
+	 */
+	public void readJson(Reader json) throws IOException {
+		new JsonCatalogReader(json).read(this);
+	}
+
+	@Override
+	public void endTarget() {
+		// Nothing to do, items are counted as they are added.
+	}
+
+	/**
+	 * Writes the catalog.
+	 *
+	 * @param out Stream to write the catalog to, not closed.
+	 * @throws IOException if the catalog could not be written.
+	 */
+	public void write(OutputStream out) throws IOException {
+		int targets = mTargets.size / 7;
+
+		// Sort the UID index by hash.
+		long[] index = new long[targets];
+		for (int i = 0; i < targets; ++i)
+			index[i] = ((long) mTargetHashes.data[i] << 32) | i;
+		Arrays.sort(index);
+		// UIDs are interned, so equal UIDs have the same string id: compare every pair of a hash run.
+		for (int i = 1; i < targets; ++i) {
+			int uid = mTargets.data[7 * (int) index[i]];
+			for (int j = i - 1; j >= 0 && index[j] >>> 32 == index[i] >>> 32; --j) {
+				if (uid == mTargets.data[7 * (int) index[j]])
+					throw new IllegalStateException("Duplicate target UID: " +
+							new String(mStrings.get(uid), "UTF-8"));
+			}
+		}
+
+		int[] counts = { targets, targets, mItems.size / 8, mPrices.size / 5, mVendors.size / 3,
+				mImages.size, mStrings.size() };
+		int[] sizes = { CatalogFile.INDEX_SIZE, CatalogFile.TARGET_SIZE, CatalogFile.ITEM_SIZE,
+				CatalogFile.PRICE_SIZE, CatalogFile.VENDOR_SIZE, CatalogFile.IMAGE_SIZE, 4 };
+		int[] offsets = new int[CatalogFile.SECTION_COUNT];
+		int offset = CatalogFile.HEADER_SIZE;
+		for (int i = 0; i < CatalogFile.SECTION_COUNT; ++i) {
+			offsets[i] = offset;
+			offset += counts[i] * sizes[i];
+		}
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(CatalogFile.MAGIC);
+		data.writeInt(CatalogFile.VERSION);
+		for (int i = 0; i < CatalogFile.SECTION_COUNT; ++i) {
+			data.writeInt(counts[i]);
+			data.writeInt(offsets[i]);
+		}
+		for (long entry : index) {
+			data.writeLong(entry);
+		}
+		writeInts(data, mTargets);
+		writeInts(data, mItems);
+		writeInts(data, mPrices);
+		writeInts(data, mVendors);
+		writeInts(data, mImages);
+		int position = 0;
+		for (byte[] s : mStrings) {
+			data.writeInt(position);
+			position += s.length;
+		}
+		data.writeInt(position);
+		for (byte[] s : mStrings) {
+			data.write(s);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Writes the catalog in memory.
+	 *
+	 * @return The catalog bytes.
+	 * @throws IOException if the catalog could not be written.
+	 */
+	public byte[] toByteArray() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out);
+		return out.toByteArray();
+	}
+
+	private static void writeInts(DataOutputStream data, IntList list) throws IOException {
+		for (int i = 0; i < list.size; ++i)
+			data.writeInt(list.data[i]);
+	}
+
+	private int string(String s) {
+		if (s == null) return CatalogFile.NO_STRING;
+		Integer id = mStringIds.get(s);
+		if (id == null) {
+			id = mStrings.size();
+			mStringIds.put(s, id);
+			mStrings.add(CatalogFile.encode(s));
+		}
+		return id;
+	}
+
+}
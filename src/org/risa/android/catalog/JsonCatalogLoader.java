@@ -0,0 +1,236 @@
+package org.risa.android.catalog;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import org.risa.android.data.DemoTarget;
+import org.risa.android.data.Item;
+import org.risa.android.data.ItemPoint;
+import org.risa.android.data.PurchaseDetails;
+import org.risa.android.data.RectangularDimension;
+import org.risa.android.data.TargetRepository;
+import org.risa.android.data.Vendor;
+import org.risa.android.util.ResourceImageLoader;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Loads a JSON catalog into a {@link TargetRepository} on a background thread.
+ * <p>
+ * The catalog is streamed with a {@link JsonCatalogReader}, and each target is added to the
+ * repository as soon as its record is parsed: targets become resolvable one by one while the rest
+ * of the catalog is still loading, and lookups of the targets already loaded are never blocked.
+ * <p>
+ * Each loader can only be started once.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class JsonCatalogLoader implements Runnable {
+
+	/**
+	 * Number of targets loaded between two progress notifications.
+	 */
+	private static final int PROGRESS_INTERVAL = 50;
+
+	/**
+	 * Listener notified of the loading progress, on the main thread.
+	 */
+	public static interface LoadListener {
+
+		/**
+		 * Called when the loading starts.
+		 */
+		public void onLoadStart();
+
+		/**
+		 * Called periodically while targets are loaded.
+		 *
+		 * @param loaded Number of targets loaded so far, all resolvable in the repository.
+		 */
+		public void onLoadProgress(int loaded);
+
+		/**
+		 * Called when the whole catalog was loaded.
+		 *
+		 * @param loaded Number of targets loaded.
+		 */
+		public void onLoadComplete(int loaded);
+
+		/**
+		 * Called if the catalog could not be read.  Targets loaded before the error remain
+		 * in the repository.
+		 *
+		 * @param e The error.
+		 */
+		public void onLoadFailed(IOException e);
+	}
+
+	private final TargetRepository mRepository;
+	private final CatalogResources mResources;
+	private final Reader mJson;
+	private final LoadListener mListener;
+	private final Handler mHandler;
+	private volatile boolean mCancelled = false;
+	private volatile int mLoaded = 0;
+	private Thread mThread;
+
+	/**
+	 * Creates a loader.
+	 *
+	 * @param ctx Context used to resolve images.
+	 * @param repository Repository to load the targets into.
+	 * @param json Reader of the JSON catalog, closed once loaded.
+	 * @param listener Listener notified of the progress, may be null.
+	 */
+	public JsonCatalogLoader(Context ctx, TargetRepository repository, Reader json, LoadListener listener) {
+		if (repository == null)
+			throw new NullPointerException(JsonCatalogLoader.class.getSimpleName() + "() Illegal null repository");
+		if (json == null)
+			throw new NullPointerException(JsonCatalogLoader.class.getSimpleName() + "() Illegal null reader");
+		mRepository = repository;
+		mResources = new CatalogResources(ctx);
+		mJson = json;
+		mListener = listener;
+		mHandler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * Starts loading the catalog in the background.
+	 */
+	public synchronized void start() {
+		if (mThread != null)
+			throw new IllegalStateException("Catalog loader already started");
+		mThread = new Thread(this, JsonCatalogLoader.class.getSimpleName());
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	/**
+	 * Stops loading after the current target.  The listener is not notified anymore.
+	 */
+	public void cancel() {
+		mCancelled = true;
+	}
+
+	/**
+	 * @return Number of targets loaded so far.
+	 */
+	public int getLoadedCount() {
+		return mLoaded;
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		post(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onLoadStart();
+			}
+		});
+		try {
+			new JsonCatalogReader(mJson).read(new Builder());
+			final int loaded = mLoaded;
+			post(new Runnable() {
+				@Override
+				public void run() {
+					mListener.onLoadComplete(loaded);
+				}
+			});
+		} catch (final IOException e) {
+			post(new Runnable() {
+				@Override
+				public void run() {
+					mListener.onLoadFailed(e);
+				}
+			});
+		} catch (CancellationException e) {
+			// Nothing to report.
+		}
+	}
+
+	/**
+	 * Posts a notification to the listener, unless the loading was cancelled.
+	 */
+	private void post(final Runnable r) {
+		if (mListener == null) return;
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (!mCancelled)
+					r.run();
+			}
+		});
+	}
+
+	/**
+	 * Builds the targets as their records are read.
+	 */
+	private class Builder implements CatalogBuilder {
+
+		private final Map<String, Vendor> mVendors = new HashMap<String, Vendor>();
+		private DemoTarget mTarget;
+		private Item mItem;
+
+		@Override
+		public void addVendor(String name, String url, String logo) {
+			mVendors.put(name, mResources.getVendor(name, url, logo));
+		}
+
+		@Override
+		public void beginTarget(String uid, String name, String image, int width, int height) {
+			if (mCancelled)
+				throw new CancellationException();
+			if (width <= 0 || height <= 0)
+				throw new IllegalArgumentException("Illegal dimensions of target " + uid + ": " + width + "x" + height);
+			mTarget = new DemoTarget(name == null ? "" : name, uid, mResources.getResourceId(image),
+					new RectangularDimension(width, height));
+			mItem = null;
+		}
+
+		@Override
+		public void addItem(String name, String details, int x, int y, List<String> images) {
+			mItem = new ItemPoint(name, mTarget.getDimensions(), x, y);
+			mItem.setDetails(details);
+			if (images != null) {
+				for (String image : images)
+					mItem.addImage(new ResourceImageLoader(mResources.getResourceId(image)));
+			}
+			mTarget.addItem(mItem);
+		}
+
+		@Override
+		public void addPrice(String vendor, String url, long cents, String currency) {
+			Vendor v = mVendors.get(vendor);
+			if (v == null)
+				throw new IllegalArgumentException("Unknown vendor: " + vendor);
+			mItem.addPurchaseDetails(new PurchaseDetails(v, cents, currency,
+					url == null ? v.getURL() : Uri.parse(url)));
+		}
+
+		@Override
+		public void endTarget() {
+			// The target is complete, make it resolvable right away.
+			mRepository.addTarget(mTarget);
+			mTarget = null;
+			final int loaded = ++mLoaded;
+			if (loaded % PROGRESS_INTERVAL == 0) {
+				post(new Runnable() {
+					@Override
+					public void run() {
+						mListener.onLoadProgress(loaded);
+					}
+				});
+			}
+		}
+	}
+
+}
@@ -0,0 +1,234 @@
+package org.risa.android.catalog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.risa.android.data.PurchaseDetails;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+/**
+ * Streaming reader of JSON catalogs.
+ * <p>
+ * The catalog is pulled token by token, and each record is handed to a {@link CatalogBuilder}
+ * as soon as it is read, so the whole catalog never has to be held in memory.  The JSON catalog
+ * has the following structure, where the image fields are names of raw resources:
+ * <pre>
+ * {
+ *   "vendors": [ { "name": "Amazon", "url": "http://www.amazon.com/", "logo": "ic_amazon_logo" } ],
+ *   "targets": [ {
+ *     "uid": "lebron", "name": "The King's new kicks", "image": "lebron", "width": 640, "height": 480,
+ *     "items": [ {
+ *       "name": "Lebron 11", "details": "...", "x": 313, "y": 300, "images": [ "lebron11_1" ],
+ *       "prices": [ { "vendor": "Amazon", "url": "http://www.amazon.com/", "price": 129.99, "currency": "USD" } ]
+ *     } ]
+ *   } ]
+ * }
+ * </pre>
+ * Vendors must come before the targets, and the fields of targets and items before their
+ * items and prices.
+ * Prices are decimal amounts in their currency, {@link PurchaseDetails#DEFAULT_CURRENCY} if it is
+ * omitted, and are converted to the minor units of that currency.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class JsonCatalogReader implements Closeable {
+
+	private final JsonReader mReader;
+	private CatalogBuilder mBuilder;
+
+	/**
+	 * Creates a reader of a JSON catalog.
+	 *
+	 * @param json Reader of the JSON catalog, closed along with this.
+	 */
+	public JsonCatalogReader(Reader json) {
+		if (json == null)
+			throw new NullPointerException(JsonCatalogReader.class.getSimpleName() + "() Illegal null reader");
+		mReader = new JsonReader(json);
+	}
+
+	/**
+	 * Reads the whole catalog, then closes this reader.
+	 *
+	 * @param builder Builder receiving the records.
+	 * @throws IOException if the JSON is malformed.
+	 */
+	public void read(CatalogBuilder builder) throws IOException {
+		if (builder == null)
+			throw new NullPointerException(JsonCatalogReader.class.getSimpleName() + ".read() Illegal null builder");
+		mBuilder = builder;
+		JsonReader reader = mReader;
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("vendors")) {
+					reader.beginArray();
+					while (reader.hasNext())
+						readVendor(reader);
+					reader.endArray();
+				} else if (name.equals("targets")) {
+					reader.beginArray();
+					while (reader.hasNext())
+						readTarget(reader);
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (IllegalStateException e) {
+			// JsonReader reports unexpected tokens this way.
+			throw new IOException("Malformed catalog: " + e.getMessage(), e);
+		} catch (IllegalArgumentException e) {
+			// Invalid numbers, or records refused by the builder.
+			throw new IOException("Invalid catalog: " + e.getMessage(), e);
+		} finally {
+			close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		mReader.close();
+	}
+
+	private void readVendor(JsonReader reader) throws IOException {
+		String name = null, url = null, logo = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			if (key.equals("name")) name = nextString(reader);
+			else if (key.equals("url")) url = nextString(reader);
+			else if (key.equals("logo")) logo = nextString(reader);
+			else reader.skipValue();
+		}
+		reader.endObject();
+		if (name == null || url == null)
+			throw new IOException("Vendor without name or url");
+		mBuilder.addVendor(name, url, logo);
+	}
+
+	private void readTarget(JsonReader reader) throws IOException {
+		String uid = null, name = null, image = null;
+		int width = 0, height = 0;
+		boolean begun = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			if (key.equals("items")) {
+				// Items come after the target fields they belong to.
+				if (!begun) {
+					if (uid == null)
+						throw new IOException("Target without uid");
+					mBuilder.beginTarget(uid, name, image, width, height);
+					begun = true;
+				}
+				reader.beginArray();
+				while (reader.hasNext())
+					readItem(reader);
+				reader.endArray();
+			} else if (begun) {
+				throw new IOException("Target fields must come before its items: " + key);
+			} else if (key.equals("uid")) uid = nextString(reader);
+			else if (key.equals("name")) name = nextString(reader);
+			else if (key.equals("image")) image = nextString(reader);
+			else if (key.equals("width")) width = reader.nextInt();
+			else if (key.equals("height")) height = reader.nextInt();
+			else reader.skipValue();
+		}
+		reader.endObject();
+		if (uid == null)
+			throw new IOException("Target without uid");
+		if (!begun)
+			mBuilder.beginTarget(uid, name, image, width, height);
+		mBuilder.endTarget();
+	}
+
+	private void readItem(JsonReader reader) throws IOException {
+		String name = null, details = null;
+		int x = 0, y = 0;
+		List<String> images = null;
+		boolean begun = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			if (key.equals("prices")) {
+				if (!begun) {
+					if (name == null)
+						throw new IOException("Item without name");
+					mBuilder.addItem(name, details, x, y, images);
+					begun = true;
+				}
+				reader.beginArray();
+				while (reader.hasNext())
+					readPrice(reader);
+				reader.endArray();
+			} else if (begun) {
+				throw new IOException("Item fields must come before its prices: " + key);
+			} else if (key.equals("name")) name = nextString(reader);
+			else if (key.equals("details")) details = nextString(reader);
+			else if (key.equals("x")) x = reader.nextInt();
+			else if (key.equals("y")) y = reader.nextInt();
+			else if (key.equals("images")) {
+				images = new ArrayList<String>();
+				reader.beginArray();
+				while (reader.hasNext())
+					images.add(reader.nextString());
+				reader.endArray();
+			} else reader.skipValue();
+		}
+		reader.endObject();
+		if (name == null)
+			throw new IOException("Item without name");
+		if (!begun)
+			mBuilder.addItem(name, details, x, y, images);
+	}
+
+	private void readPrice(JsonReader reader) throws IOException {
+		String vendor = null, url = null, currency = null, price = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			if (key.equals("vendor")) vendor = nextString(reader);
+			else if (key.equals("url")) url = nextString(reader);
+			else if (key.equals("currency")) currency = nextString(reader);
+			else if (key.equals("price")) price = reader.nextString();
+			else reader.skipValue();
+		}
+		reader.endObject();
+
+		// Parse the decimal literal exactly, prices must not go through binary floating point.
+		// The currency may come after the price, and gives the number of digits of its minor units.
+		long cents = 0;
+		if (price != null) {
+			int digits = PurchaseDetails.getFractionDigits(
+					currency == null ? PurchaseDetails.DEFAULT_CURRENCY : currency);
+			try {
+				cents = new BigDecimal(price).movePointRight(digits)
+						.setScale(0, RoundingMode.HALF_UP).longValueExact();
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed price: " + price);
+			} catch (ArithmeticException e) {
+				throw new IOException("Price out of range: " + price);
+			}
+		}
+		mBuilder.addPrice(vendor, url, cents, currency);
+	}
+
+	private static String nextString(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		return reader.nextString();
+	}
+
+}
@@ -45,6 +45,24 @@ public class DemoTarget extends Target {
 		this.mResources = res;
 		this.mDimensions = ImageUtil.getDimensions(mResources, mResourceID);
 	}
+
+	/**
+	 * Create a DemoTarget whose image dimensions are already known, without decoding
+	 * the image.
+	 * 
+	 * @param title Human readable title of the target.
+	 * @param uid Unique name known to moodstocks.
+	 * @param resId Resource ID of the target image.
+	 * @param dimensions Dimensions of the target image.
+	 */
+	public DemoTarget(String title, String uid, int resId, RectangularDimension dimensions) {
+		super(title, uid);
+		if (dimensions == null) 
+			throw new NullPointerException(DemoTarget.class.getSimpleName() + "() Illegal null dimensions");
+		this.mResourceID = resId;
+		this.mResources = null;
+		this.mDimensions = dimensions;
+	}
 	
 	/**
 	 * Create a demo target using an image resource in Android.
@@ -2,7 +2,6 @@ package org.risa.android.data;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 import org.risa.android.util.ImageSource;
@@ -26,19 +25,21 @@ public abstract class Item implements Interactable {
 	private final String mName;
 	
 	/**
-	 * List of all purchase details with this item.
+	 * List of all purchase details with this item, in {@link PurchaseDetails#LOWEST_COST} order.
+	 * <b>Immutable snapshot, replaced as a whole on every change.
 	 */
-	private final List<PurchaseDetails> mPurchaseDetails;
+	private volatile List<PurchaseDetails> mPurchaseDetails;
 	
 	/**
 	 * List of all images with this item.
+	 * <b>Immutable snapshot, replaced as a whole on every change.
 	 */
-	private final List<ImageSource> mImages;
+	private volatile List<ImageSource> mImages;
 
 	/**
 	 * Details about this particular event.
 	 */
-	private String mDetails;
+	private volatile String mDetails;
 	
 	/**
 	 * Creates an item without any purchase capability or images.
@@ -60,10 +61,15 @@ public abstract class Item implements Interactable {
 		if (name == null)
 			throw new NullPointerException(Item.class.getSimpleName() + "() Illegal null Name");
 		mName = name;
-		mPurchaseDetails = purchDetails == null ? new ArrayList<PurchaseDetails>() : 
-			new ArrayList<PurchaseDetails>(purchDetails);
-		mImages = images == null ? new ArrayList<ImageSource>() : 
-			new ArrayList<ImageSource>(images);
+		if (purchDetails == null) {
+			mPurchaseDetails = Collections.emptyList();
+		} else {
+			List<PurchaseDetails> details = new ArrayList<PurchaseDetails>(purchDetails);
+			Collections.sort(details, PurchaseDetails.LOWEST_COST);
+			mPurchaseDetails = Collections.unmodifiableList(details);
+		}
+		mImages = images == null ? Collections.<ImageSource>emptyList() : 
+			Collections.unmodifiableList(new ArrayList<ImageSource>(images));
 	}
 	
 	/**
@@ -78,10 +84,13 @@ public abstract class Item implements Interactable {
 	 * 
 	 * @param image Source of this image to load.
 	 */
-	public void addImage(ImageSource image) {
-		if (mImages.contains(image)) return;
+	public synchronized void addImage(ImageSource image) {
 		if (image == null) return;
-		mImages.add(image);
+		if (mImages.contains(image)) return;
+		List<ImageSource> images = new ArrayList<ImageSource>(mImages.size() + 1);
+		images.addAll(mImages);
+		images.add(image);
+		mImages = Collections.unmodifiableList(images);
 	}
 	
 	/**
@@ -90,16 +99,19 @@ public abstract class Item implements Interactable {
 	 * @param image Removes image from this
 	 * @return whether the image was found in this
 	 */
-	public boolean removeImage(ImageSource image) {
-		return mImages.remove(image);
+	public synchronized boolean removeImage(ImageSource image) {
+		if (!mImages.contains(image)) return false;
+		List<ImageSource> images = new ArrayList<ImageSource>(mImages);
+		images.remove(image);
+		mImages = Collections.unmodifiableList(images);
+		return true;
 	}
 	
 	/**
-	 * @return List of Images that represent this.
+	 * @return Unmodifiable snapshot of the images that represent this.
 	 */
 	public List<ImageSource> getImages() {
-		List<ImageSource> list = new ArrayList<ImageSource>(mImages);
-		return list;
+		return mImages;
 	}
 	
 	/**
@@ -107,10 +119,17 @@ public abstract class Item implements Interactable {
 	 * 
 	 * @param details Details of the purchase
 	 */
-	public void addPurchaseDetails(PurchaseDetails details) {
+	public synchronized void addPurchaseDetails(PurchaseDetails details) {
 		if (details == null) return;
-		if (mPurchaseDetails.contains(details)) return;
-		mPurchaseDetails.add(details);
+		List<PurchaseDetails> current = mPurchaseDetails;
+		if (current.contains(details)) return;
+		// Insert in place, so the snapshot stays in order of lowest cost.
+		int index = Collections.binarySearch(current, details, PurchaseDetails.LOWEST_COST);
+		if (index < 0) index = -index - 1;
+		List<PurchaseDetails> list = new ArrayList<PurchaseDetails>(current.size() + 1);
+		list.addAll(current);
+		list.add(index, details);
+		mPurchaseDetails = Collections.unmodifiableList(list);
 	}
 	
 	/**
@@ -119,29 +138,51 @@ public abstract class Item implements Interactable {
 	 * @param details Purchase details of this purchase.
 	 * @return Whether the purchase details was found in this.
 	 */
-	public boolean removePurchaseDetails(PurchaseDetails details) {
-		return mPurchaseDetails.remove(details);
+	public synchronized boolean removePurchaseDetails(PurchaseDetails details) {
+		if (!mPurchaseDetails.contains(details)) return false;
+		List<PurchaseDetails> list = new ArrayList<PurchaseDetails>(mPurchaseDetails);
+		list.remove(details);
+		mPurchaseDetails = Collections.unmodifiableList(list);
+		return true;
 	}
 	
 	/**
-	 * @return Return list of purchase details in order of lowest cost.
+	 * @return Unmodifiable snapshot of the purchase details, by currency then lowest cost.
 	 */
 	public List<PurchaseDetails> getPurchaseDetails() {
-		List<PurchaseDetails> details = new ArrayList<PurchaseDetails>(mPurchaseDetails);
-		Collections.sort(details, new LowCostComparator());
-		return details;
+		return mPurchaseDetails;
 	}
 	
 	/**
-	 * Returns the lowest cost of the item.
+	 * Returns the lowest cost of the item.  If the item is priced in several currencies,
+	 * this is the lowest cost in the first currency code in alphabetical order.
 	 * @return Lowest cost Purchase Details.
 	 */
 	public PurchaseDetails getLowestCost() {
-		List<PurchaseDetails> details = getPurchaseDetails();
+		List<PurchaseDetails> details = mPurchaseDetails;
 		if (details.isEmpty()) return null;
 		return details.get(0);
 	}
 	
+	/**
+	 * Returns the highest cost of the item.  Along with {@link #getLowestCost()},
+	 * gives the price range of the item, for items priced in a single currency.
+	 * 
+	 * @return Highest cost Purchase Details, null if there are none.
+	 */
+	public PurchaseDetails getHighestCost() {
+		List<PurchaseDetails> details = mPurchaseDetails;
+		if (details.isEmpty()) return null;
+		return details.get(details.size() - 1);
+	}
+	
+	/**
+	 * @return Number of purchase details of this item.
+	 */
+	public int getPurchaseDetailsCount() {
+		return mPurchaseDetails.size();
+	}
+	
 	/**
 	 * SEt the details of this item.
 	 * 
@@ -165,23 +206,6 @@ public abstract class Item implements Interactable {
 	@Override
 	public abstract Rect getBounds(Resources res, Canvas canvas);
 	
-	/**
-	 * Used to sort Purchase Details by lowest cost.
-	 * 
-	 * @author Michael Hotan, michael.hotan@gmail.com
-	 */
-	private static class LowCostComparator implements Comparator<PurchaseDetails> {
-
-		@Override
-		public int compare(PurchaseDetails lhs, PurchaseDetails rhs) {
-			float leftCost = lhs.getCost();
-			float rightCost = rhs.getCost();
-			if (Math.abs(leftCost-rightCost) < .001) return 0;
-			else if (leftCost < rightCost) return -1;
-			else return 1;
-		}
-	} 
-	
 	@Override
 	public boolean equals(Object o) {
 		if (o == null) return false;
@@ -38,11 +38,6 @@ public class ItemPoint extends Item {
 	 */
 	private final RectangularDimension mOrigDimension;
 
-	/**
-	 * The quandrant where this focal plane lies in.
-	 */
-	private final Quandrant mQuandrant;
-
 	/**
 	 * Focal point set at a final deterministic location.
 	 * 
@@ -63,20 +58,6 @@ public class ItemPoint extends Item {
 
 		// The dimension of the target image this point is on
 		mOrigDimension = targetDimension;
-
-		if (xCoord <= targetDimension.getMidpoint().x && yCoord < targetDimension.getMidpoint().y) {
-			// Quadrant 1
-			mQuandrant = Quandrant.ONE;
-		} else if (xCoord > targetDimension.getMidpoint().x && yCoord <= targetDimension.getMidpoint().y) {
-			// Quandrant 2
-			mQuandrant = Quandrant.TWO;
-		} else if (xCoord >= targetDimension.getMidpoint().x && yCoord > targetDimension.getMidpoint().y) {
-			// Quandrant 3
-			mQuandrant = Quandrant.THREE;
-		} else {
-			// Quandrant 4
-			mQuandrant = Quandrant.FOUR;
-		}
 	}
 
 	/**
@@ -90,6 +71,20 @@ public class ItemPoint extends Item {
 		return new Point(mCoordinate);
 	}
 
+	/**
+	 * @return Raw X coordinate of the focal point, without allocating.
+	 */
+	public int getX() {
+		return mCoordinate.x;
+	}
+
+	/**
+	 * @return Raw Y coordinate of the focal point, without allocating.
+	 */
+	public int getY() {
+		return mCoordinate.y;
+	}
+
 	/**
 	 * Performs lazy instantiation of Bitmap image
 	 * 
@@ -116,57 +111,61 @@ public class ItemPoint extends Item {
 
 	@Override
 	public void onDrawSelf(Resources res, Canvas canvas) {
-
-		// Obtain a reference to the image to draw. 
-		Bitmap image = getImage(res);		
-
 		// Get the boundaries of the Focal Point Image
 		Rect bounds = getBounds(res, canvas);
 		
 		// Draw the focal point on the the scaled image.
-		canvas.drawBitmap(image, bounds.left, bounds.top, mPaint);
+		onDrawSelf(res, canvas, bounds.left, bounds.top);
+	}
+
+	/**
+	 * Draws the focal point at boundaries already computed with 
+	 * {@link #getBounds(Resources, int, int, Rect)}, without allocating.
+	 * 
+	 * @param res Resources to get image
+	 * @param canvas Canvas to draw on
+	 * @param left Left of the boundaries
+	 * @param top Top of the boundaries
+	 */
+	public void onDrawSelf(Resources res, Canvas canvas, int left, int top) {
+		canvas.drawBitmap(getImage(res), left, top, mPaint);
 	}
 
 	@Override
 	public Rect getBounds(Resources res, Canvas canvas) {
+		Rect bounds = new Rect();
+		getBounds(res, canvas.getWidth(), canvas.getHeight(), bounds);
+		return bounds;
+	}
+
+	/**
+	 * Computes the boundary the focal point is drawn in on a canvas, without allocating.
+	 * 
+	 * @param res Resources to get image
+	 * @param canvasWidth Width of the canvas
+	 * @param canvasHeight Height of the canvas
+	 * @param out Rect to store the boundary in
+	 */
+	public void getBounds(Resources res, int canvasWidth, int canvasHeight, Rect out) {
 		// Obtain a reference to the image to draw. 
 		Bitmap image = getImage(res);
-
-		int canvasWidth = canvas.getWidth();
-		int canvasHeight = canvas.getHeight();
 		int imgWidth = image.getWidth();
 		int imgHeight = image.getHeight();
 		
-		// Calculate the scaled point of myself.
-		RectangularDimension scaledDimension = new RectangularDimension(canvasWidth, canvasHeight);
-		float scale = mOrigDimension.getScale(scaledDimension);
-		int scaledX, scaledY;
-
-		// Assign the scaled X Coordinate based on which quandrant we are looking at.
-		switch (mQuandrant) {
-		case ONE:
-		case FOUR:
-			scaledX = (int) (scaledDimension.getMidpoint().x - ((mOrigDimension.getMidpoint().x - mCoordinate.x) * scale));
-			break;
-		default:
-			scaledX = (int) (scaledDimension.getMidpoint().x + (mCoordinate.x - mOrigDimension.getMidpoint().x) * scale);
-		}
-
-		// Assign the Scaled Y Coordinate based on which quandrant the focal point is in.
-		switch (mQuandrant) {
-		case ONE:
-		case TWO:
-			scaledY = (int) (scaledDimension.getMidpoint().y - (mOrigDimension.getMidpoint().y - mCoordinate.y) * scale);
-			break;
-		default:
-			scaledY = (int) (scaledDimension.getMidpoint().y + (mCoordinate.y - mOrigDimension.getMidpoint().y) * scale);
-		}
+		// Calculate the scaled point of myself, relative to the midpoints of both dimensions.
+		// This holds whatever quandrant the focal point is in.
+		int origWidth = mOrigDimension.getWidth();
+		int origHeight = mOrigDimension.getHeight();
+		float scale = origWidth == canvasWidth && origHeight == canvasHeight ? 1f : 
+			Math.min((float) canvasWidth / (float) origWidth, (float) canvasHeight / (float) origHeight);
+		int scaledX = (int) (canvasWidth / 2 + (mCoordinate.x - origWidth / 2) * scale);
+		int scaledY = (int) (canvasHeight / 2 + (mCoordinate.y - origHeight / 2) * scale);
 		
 		// Make sure the combination of the center point and  boundaries of the image fits within the bounds
 		// of the image.
 		int left = Math.max(0, Math.min(canvasWidth - imgWidth, scaledX - imgWidth / 2));
 		int top = Math.min(canvasHeight - imgHeight, scaledY - imgHeight / 2);
-		return new Rect(left, top, left + imgWidth, top + imgHeight);
+		out.set(left, top, left + imgWidth, top + imgHeight);
 	}
 	
 	@Override
@@ -1,6 +1,10 @@
 package org.risa.android.data;
 
+import java.math.BigDecimal;
 import java.text.NumberFormat;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.Locale;
 
 import android.net.Uri;
 import android.os.Parcel;
@@ -13,27 +17,94 @@ import android.os.Parcelable;
  */
 public class PurchaseDetails implements Parcelable {
 
+	/**
+	 * Currency of the prices given as floating point values.
+	 */
+	public static final String DEFAULT_CURRENCY = "USD";
+
+	/**
+	 * Orders purchase details by currency, then by lowest cost within each currency: costs in
+	 * different currencies can not be compared.  Ties are broken by vendor and uri, so that the 
+	 * order is total and consistent with equals.
+	 */
+	public static final Comparator<PurchaseDetails> LOWEST_COST = new Comparator<PurchaseDetails>() {
+		@Override
+		public int compare(PurchaseDetails lhs, PurchaseDetails rhs) {
+			int c = lhs.mCurrency.compareTo(rhs.mCurrency);
+			if (c != 0) return c;
+			if (lhs.mCents != rhs.mCents)
+				return lhs.mCents < rhs.mCents ? -1 : 1;
+			c = lhs.mVendor.getId().compareTo(rhs.mVendor.getId());
+			if (c != 0) return c;
+			return lhs.mUri.toString().compareTo(rhs.mUri.toString());
+		}
+	};
+
+	/**
+	 * Currency format of each thread, for the locale it was created in.
+	 */
+	private static final ThreadLocal<CostFormat> COST_FORMAT = new ThreadLocal<CostFormat>();
+
+	private static class CostFormat {
+		final Locale mLocale;
+		final NumberFormat mFormat;
+
+		CostFormat(Locale locale) {
+			mLocale = locale;
+			mFormat = NumberFormat.getCurrencyInstance(locale);
+		}
+	}
+
 	private final Vendor mVendor;
-	private final float mCost;
+
+	/**
+	 * Cost, in minor units of the currency (I.E. cents).
+	 */
+	private final long mCents;
+
+	/**
+	 * ISO 4217 code of the currency of the cost.
+	 */
+	private final String mCurrency;
 	private final Uri mUri;
 
 	/**
 	 * Creates an instant of details of how to purchase a single item.
 	 * 
 	 * @param vendor Vendor that is providing the ability to purchase
-	 * @param cost Cost of the item
+	 * @param cost Cost of the item in {@link #DEFAULT_CURRENCY}, rounded to the cent.
 	 * @param uri Uri that points to the specific web page of the item.
 	 */
 	public PurchaseDetails(Vendor vendor, float cost, Uri uri) {
+		this(vendor, Math.round((double) cost * 100.0), DEFAULT_CURRENCY, uri);
+	}
+
+	/**
+	 * Creates an instant of details of how to purchase a single item.
+	 * 
+	 * @param vendor Vendor that is providing the ability to purchase
+	 * @param cents Cost of the item, in minor units of the currency (I.E. cents for dollars)
+	 * @param currency ISO 4217 code of the currency, null for {@link #DEFAULT_CURRENCY}
+	 * @param uri Uri that points to the specific web page of the item.
+	 */
+	public PurchaseDetails(Vendor vendor, long cents, String currency, Uri uri) {
+		if (vendor == null)
+			throw new NullPointerException(PurchaseDetails.class.getSimpleName() + "() Illegal null vendor");
+		if (uri == null)
+			throw new NullPointerException(PurchaseDetails.class.getSimpleName() + "() Illegal null uri");
+		if (cents < 0)
+			throw new IllegalArgumentException("Illegal negative cost: " + cents);
 		mVendor = vendor;
-		mCost = cost;
+		mCents = cents;
+		mCurrency = currency == null ? DEFAULT_CURRENCY : currency;
 		mUri = uri;
 	}
 
 	public PurchaseDetails(Parcel in) {
-		mVendor = in.readParcelable(Vendor.class.getClassLoader());
-		mCost = in.readFloat();
-		mUri = in.readParcelable(Uri.class.getClassLoader());
+		mVendor = Vendor.CREATOR.createFromParcel(in);
+		mCents = in.readLong();
+		mCurrency = in.readString();
+		mUri = Uri.parse(in.readString());
 	}
 
 	/**
@@ -48,10 +119,24 @@ public class PurchaseDetails implements Parcelable {
 	/**
 	 * Return the cost of this item
 	 * 
-	 * @return Cost of this item
+	 * @return Cost of this item, in units of its currency.
 	 */
 	public float getCost() {
-		return mCost;
+		return BigDecimal.valueOf(mCents, getFractionDigits(mCurrency)).floatValue();
+	}
+
+	/**
+	 * @return Cost of this item, in minor units of its currency (I.E. cents).
+	 */
+	public long getCents() {
+		return mCents;
+	}
+
+	/**
+	 * @return ISO 4217 code of the currency of the cost.
+	 */
+	public String getCurrency() {
+		return mCurrency;
 	}
 
 	/**
@@ -60,8 +145,39 @@ public class PurchaseDetails implements Parcelable {
 	 * @return Human readable cost.
 	 */
 	public String getReadableCost() {
-		NumberFormat format = NumberFormat.getCurrencyInstance();
-		return format.format(mCost);
+		Locale locale = Locale.getDefault();
+		CostFormat cached = COST_FORMAT.get();
+		if (cached == null || !cached.mLocale.equals(locale)) {
+			cached = new CostFormat(locale);
+			COST_FORMAT.set(cached);
+		}
+		Currency currency;
+		try {
+			currency = Currency.getInstance(mCurrency);
+		} catch (IllegalArgumentException e) {
+			// Unknown currency code, use the one of the locale.
+			currency = NumberFormat.getCurrencyInstance(locale).getCurrency();
+		}
+		NumberFormat format = cached.mFormat;
+		int digits = getFractionDigits(mCurrency);
+		format.setCurrency(currency);
+		format.setMinimumFractionDigits(digits);
+		format.setMaximumFractionDigits(digits);
+		return format.format(BigDecimal.valueOf(mCents, digits));
+	}
+
+	/**
+	 * @param currency ISO 4217 code of a currency.
+	 * @return Number of digits of the minor units of a currency, 2 if it is unknown.
+	 */
+	public static int getFractionDigits(String currency) {
+		if (DEFAULT_CURRENCY.equals(currency)) return 2;
+		try {
+			int digits = Currency.getInstance(currency).getDefaultFractionDigits();
+			return digits < 0 ? 0 : digits;
+		} catch (IllegalArgumentException e) {
+			return 2;
+		}
 	}
 
 	public Uri getUri() {
@@ -72,12 +188,13 @@ public class PurchaseDetails implements Parcelable {
 		if (o == null) return false;
 		if (!o.getClass().equals(getClass())) return false;
 		PurchaseDetails p = (PurchaseDetails) o;
-		boolean costEquals = Math.abs( p.mCost - mCost) < .001;
-		return mVendor.equals(p.mVendor) && mUri.equals(p.mUri) && costEquals;
+		return mVendor.equals(p.mVendor) && mUri.equals(p.mUri) 
+				&& mCents == p.mCents && mCurrency.equals(p.mCurrency);
 	}
 
 	public int hashCode() {
-		return mVendor.hashCode() + 3 * mUri.hashCode() + ((int)mCost) * 11;
+		return mVendor.hashCode() + 3 * mUri.hashCode() + ((int) (mCents ^ (mCents >>> 32))) * 11
+				+ 13 * mCurrency.hashCode();
 	}
 
 	@Override
@@ -87,9 +204,11 @@ public class PurchaseDetails implements Parcelable {
 
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeParcelable(mVendor, 0);
-		dest.writeFloat(mCost);
-		dest.writeParcelable(mUri, 0);
+		// Written inline, without the class names writeParcelable adds.
+		mVendor.writeToParcel(dest, flags);
+		dest.writeLong(mCents);
+		dest.writeString(mCurrency);
+		dest.writeString(mUri.toString());
 	}
 
 	public static final Parcelable.Creator<PurchaseDetails> CREATOR
@@ -4,7 +4,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import android.widget.ImageView;
 
@@ -31,8 +33,10 @@ public abstract class Target {
 	/**
 	 * Collection of items that can be interacted with within the target.
 	 * <b>This requires some kind of inherent order to the items.
+	 * <b>This is an immutable snapshot, replaced as a whole on every change so that
+	 * readers never have to lock or copy it.
 	 */
-	private final List<Item> mItems;
+	private volatile List<Item> mItems;
 	
 	/**
 	 * 
@@ -65,7 +69,7 @@ public abstract class Target {
 		
 		mUID = uid;
 		mReadableString = identifier;
-		mItems = new ArrayList<Item>();
+		mItems = Collections.emptyList();
 	}
 	
 	/**
@@ -80,10 +84,11 @@ public abstract class Target {
 	/**
 	 * Get all the interactable components within this Target.
 	 * 
-	 * @return All the interactable objects within the target
+	 * @return Unmodifiable snapshot of all the interactable objects within the target,
+	 * not affected by later changes.
 	 */
 	public List<Item> getItems() {
-		return getItems(null);
+		return mItems;
 	}
 	
 	/**
@@ -93,9 +98,10 @@ public abstract class Target {
 	 * @return All the interactable objects within the target
 	 */
 	public List<Item> getItems(Comparator<Item> orderComparator) {
-		List<Item> items = new ArrayList<Item>(mItems);
+		List<Item> items = mItems;
 		if (orderComparator == null)
 			return items;
+		items = new ArrayList<Item>(items);
 		Collections.sort(items, orderComparator);
 		return items;
 	}
@@ -106,10 +112,25 @@ public abstract class Target {
 	 * 
 	 * @param item item to add that is interactable.
 	 */
-	public void addItem(Item item) {
+	public synchronized void addItem(Item item) {
 		if (item == null) return;
 		if (mItems.contains(item)) return;
-		mItems.add(item);
+		List<Item> items = new ArrayList<Item>(mItems.size() + 1);
+		items.addAll(mItems);
+		items.add(item);
+		mItems = Collections.unmodifiableList(items);
+	}
+	
+	/**
+	 * Replaces all the interactable items at once.  Readers either see all the 
+	 * previous items or all the new ones.
+	 * 
+	 * @param items New items of this target, duplicates are ignored.
+	 */
+	public synchronized void setItems(Collection<Item> items) {
+		Set<Item> unique = new LinkedHashSet<Item>(items);
+		unique.remove(null);
+		mItems = Collections.unmodifiableList(new ArrayList<Item>(unique));
 	}
 	
 	/**
@@ -117,8 +138,11 @@ public abstract class Target {
 	 * 
 	 * @param item Item to remove
 	 */
-	public void removeItem(Item item) {
-		mItems.remove(item);
+	public synchronized void removeItem(Item item) {
+		if (!mItems.contains(item)) return;
+		List<Item> items = new ArrayList<Item>(mItems);
+		items.remove(item);
+		mItems = Collections.unmodifiableList(items);
 	}
 	
 	/**
@@ -126,9 +150,9 @@ public abstract class Target {
 	 * 
 	 * @return Returns all the Interactable components of this.
 	 */
-	public Collection<Item> clearInteractables() {
-		Collection<Item> interactables = getItems();
-		mItems.clear();
+	public synchronized Collection<Item> clearInteractables() {
+		Collection<Item> interactables = mItems;
+		mItems = Collections.emptyList();
 		return interactables;
 	}
 	
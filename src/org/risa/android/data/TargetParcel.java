@@ -0,0 +1,363 @@
+package org.risa.android.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.risa.android.util.ImageSource;
+import org.risa.android.util.ResourceImageLoader;
+
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Compact parcelable encoding of a fully hydrated {@link DemoTarget}, its items and their prices,
+ * used to hand targets across activities and processes without resolving them again.
+ * <p>
+ * All the strings (names, details, urls, vendors) are written once in a string table and referred
+ * to by index, vendors are written once in a vendor table, and items and prices are written as
+ * packed arrays.  The encoding is computed once, and unparceling only reads the arrays back: the
+ * target itself is only rebuilt when {@link #getTarget(TargetRepository)} is first called.
+ * <p>
+ * Only {@link DemoTarget}s whose items are all {@link ItemPoint}s with {@link ResourceImageLoader}
+ * images can be encoded.  Other targets are only passed by UID, and resolved through the
+ * {@link TargetRepository} they come from.  The encoding is computed again when the items, their
+ * details, prices or images changed since it was computed.
+ *
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class TargetParcel implements Parcelable {
+
+	/**
+	 * Marks the absence of string, or for urls the url of the vendor.
+	 */
+	private static final int NONE = -1;
+
+	private final String mUID;
+	private Target mTarget;
+	private boolean mEncoded = false;
+
+	/*
+	 * Snapshots the encoding was computed from: the items list, then the details, purchase details
+	 * and images of each item.  Null if the target is not encoded, or only passed by UID.
+	 */
+	private Object[] mSnapshot;
+
+	/*
+	 * Encoded target: whether it is encoded in full, its title, resource and dimensions.
+	 */
+	private boolean mDemo;
+	private String mTitle;
+	private int mResourceID;
+	private int mWidth;
+	private int mHeight;
+
+	/*
+	 * String table, and vendor table as (id, name, url) string indexes.
+	 */
+	private String[] mStrings;
+	private int[] mVendors;
+
+	/*
+	 * Items, as (name, details, x, y, price count, image count) tuples.
+	 */
+	private int[] mItems;
+
+	/*
+	 * Prices, as (vendor index, url string, currency string) tuples, and their cents.
+	 */
+	private int[] mPrices;
+	private long[] mCents;
+
+	/*
+	 * Resource ids of the item images.
+	 */
+	private int[] mImages;
+
+	/**
+	 * Creates the parcel of a target.  The target is only encoded when written to a parcel.
+	 *
+	 * @param target Target to parcel.
+	 */
+	public TargetParcel(Target target) {
+		if (target == null)
+			throw new NullPointerException(TargetParcel.class.getSimpleName() + "() Illegal null target");
+		mUID = target.getUID();
+		mTarget = target;
+	}
+
+	private TargetParcel(Parcel in) {
+		mUID = in.readString();
+		mDemo = in.readInt() != 0;
+		if (mDemo) {
+			mTitle = in.readString();
+			mResourceID = in.readInt();
+			mWidth = in.readInt();
+			mHeight = in.readInt();
+			mStrings = in.createStringArray();
+			mVendors = in.createIntArray();
+			mItems = in.createIntArray();
+			mPrices = in.createIntArray();
+			mCents = in.createLongArray();
+			mImages = in.createIntArray();
+		}
+		mEncoded = true;
+	}
+
+	/**
+	 * @return Unique ID of the target.
+	 */
+	public String getUID() {
+		return mUID;
+	}
+
+	/**
+	 * Returns the target, rebuilding it on first call if it was unparceled.
+	 *
+	 * @param repository Repository used to resolve targets parceled by UID only.
+	 * @return The target, or null if it could not be resolved.
+	 */
+	public synchronized Target getTarget(TargetRepository repository) {
+		if (mTarget == null)
+			mTarget = mDemo ? decode() : repository.getTarget(mUID);
+		return mTarget;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public synchronized void writeToParcel(Parcel dest, int flags) {
+		if (!mEncoded || isStale())
+			encode();
+		dest.writeString(mUID);
+		dest.writeInt(mDemo ? 1 : 0);
+		if (mDemo) {
+			dest.writeString(mTitle);
+			dest.writeInt(mResourceID);
+			dest.writeInt(mWidth);
+			dest.writeInt(mHeight);
+			dest.writeStringArray(mStrings);
+			dest.writeIntArray(mVendors);
+			dest.writeIntArray(mItems);
+			dest.writeIntArray(mPrices);
+			dest.writeLongArray(mCents);
+			dest.writeIntArray(mImages);
+		}
+	}
+
+	public static final Parcelable.Creator<TargetParcel> CREATOR
+	= new Parcelable.Creator<TargetParcel>() {
+		public TargetParcel createFromParcel(Parcel in) {
+			return new TargetParcel(in);
+		}
+
+		public TargetParcel[] newArray(int size) {
+			return new TargetParcel[size];
+		}
+	};
+
+	/**
+	 * Takes the snapshots of a target the encoding depends on.
+	 */
+	private static Object[] snapshot(Target target) {
+		List<Item> items = target.getItems();
+		Object[] snapshot = new Object[1 + 3 * items.size()];
+		snapshot[0] = items;
+		for (int i = 0; i < items.size(); ++i) {
+			Item item = items.get(i);
+			snapshot[1 + 3 * i] = item.getDetails();
+			snapshot[2 + 3 * i] = item.getPurchaseDetails();
+			snapshot[3 + 3 * i] = item.getImages();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return Whether the target changed since it was encoded.
+	 */
+	private boolean isStale() {
+		if (mTarget == null || mSnapshot == null) return false;
+		List<Item> items = mTarget.getItems();
+		if (items != mSnapshot[0]) return true;
+		for (int i = 0; i < items.size(); ++i) {
+			Item item = items.get(i);
+			if (item.getDetails() != mSnapshot[1 + 3 * i] || item.getPurchaseDetails() != mSnapshot[2 + 3 * i]
+					|| item.getImages() != mSnapshot[3 + 3 * i])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Encodes the target in packed arrays, if all its items and images can be.
+	 */
+	@SuppressWarnings("unchecked")
+	private void encode() {
+		mEncoded = true;
+		mSnapshot = null;
+		mDemo = mTarget instanceof DemoTarget;
+		if (!mDemo) return;
+		DemoTarget target = (DemoTarget) mTarget;
+		Object[] snapshot = snapshot(target);
+		List<Item> itemList = (List<Item>) snapshot[0];
+
+		// Items that can not be encoded would be lost: pass the target by UID instead.
+		for (int i = 0; i < itemList.size(); ++i) {
+			if (!(itemList.get(i) instanceof ItemPoint)) {
+				mDemo = false;
+				return;
+			}
+			for (ImageSource source : (List<ImageSource>) snapshot[3 + 3 * i]) {
+				if (!(source instanceof ResourceImageLoader)) {
+					mDemo = false;
+					return;
+				}
+			}
+		}
+
+		mTitle = target.getReadableIdentifier();
+		mResourceID = target.getResourceID();
+		mWidth = target.getDimensions().getWidth();
+		mHeight = target.getDimensions().getHeight();
+
+		Table strings = new Table();
+		Map<Vendor, Integer> vendors = new HashMap<Vendor, Integer>();
+		List<Vendor> vendorList = new ArrayList<Vendor>();
+		IntArray items = new IntArray();
+		IntArray prices = new IntArray();
+		List<Long> cents = new ArrayList<Long>();
+		IntArray images = new IntArray();
+		for (int i = 0; i < itemList.size(); ++i) {
+			ItemPoint point = (ItemPoint) itemList.get(i);
+			List<PurchaseDetails> details = (List<PurchaseDetails>) snapshot[2 + 3 * i];
+			List<ImageSource> sources = (List<ImageSource>) snapshot[3 + 3 * i];
+			for (ImageSource source : sources)
+				images.add(((ResourceImageLoader) source).getResourceID());
+			items.add(strings.add(point.getName()));
+			items.add(strings.add((String) snapshot[1 + 3 * i]));
+			items.add(point.getX());
+			items.add(point.getY());
+			items.add(details.size());
+			items.add(sources.size());
+			for (PurchaseDetails d : details) {
+				Vendor v = d.getVendor();
+				Integer index = vendors.get(v);
+				if (index == null) {
+					index = vendorList.size();
+					vendors.put(v, index);
+					vendorList.add(v);
+				}
+				prices.add(index);
+				prices.add(d.getUri().equals(v.getURL()) ? NONE : strings.add(d.getUri().toString()));
+				prices.add(strings.add(d.getCurrency()));
+				cents.add(d.getCents());
+			}
+		}
+		mVendors = new int[3 * vendorList.size()];
+		for (int i = 0; i < vendorList.size(); ++i) {
+			Vendor v = vendorList.get(i);
+			mVendors[3 * i] = strings.add(v.getId());
+			mVendors[3 * i + 1] = strings.add(v.getName());
+			mVendors[3 * i + 2] = strings.add(v.getURL().toString());
+		}
+		mStrings = strings.toArray();
+		mItems = items.toArray();
+		mPrices = prices.toArray();
+		mCents = new long[cents.size()];
+		for (int i = 0; i < mCents.length; ++i)
+			mCents[i] = cents.get(i);
+		mImages = images.toArray();
+		mSnapshot = snapshot;
+	}
+
+	/**
+	 * Rebuilds the target from the packed arrays.
+	 */
+	private Target decode() {
+		RectangularDimension dimensions = new RectangularDimension(mWidth, mHeight);
+		DemoTarget target = new DemoTarget(mTitle, mUID, mResourceID, dimensions);
+
+		// Resolve each vendor once, to its canonical instance.
+		Vendor[] vendors = new Vendor[mVendors.length / 3];
+		for (int i = 0; i < vendors.length; ++i) {
+			vendors[i] = Vendor.valueOf(mStrings[mVendors[3 * i]]);
+			if (vendors[i] == null)
+				vendors[i] = Vendor.valueOf(mStrings[mVendors[3 * i + 1]], mStrings[mVendors[3 * i + 2]]);
+		}
+
+		List<Item> items = new ArrayList<Item>(mItems.length / 6);
+		int price = 0, image = 0;
+		for (int i = 0; i < mItems.length; i += 6) {
+			ItemPoint item = new ItemPoint(string(mItems[i]), dimensions, mItems[i + 2], mItems[i + 3]);
+			item.setDetails(string(mItems[i + 1]));
+			for (int end = image + mItems[i + 5]; image < end; ++image)
+				item.addImage(new ResourceImageLoader(mImages[image]));
+			for (int end = price + mItems[i + 4]; price < end; ++price) {
+				Vendor v = vendors[mPrices[3 * price]];
+				int url = mPrices[3 * price + 1];
+				item.addPurchaseDetails(new PurchaseDetails(v, mCents[price], string(mPrices[3 * price + 2]),
+						url == NONE ? v.getURL() : Uri.parse(mStrings[url])));
+			}
+			items.add(item);
+		}
+		target.setItems(items);
+		mSnapshot = snapshot(target);
+		return target;
+	}
+
+	private String string(int index) {
+		return index == NONE ? null : mStrings[index];
+	}
+
+	/**
+	 * String table, assigning an index to each distinct string.
+	 */
+	private static class Table {
+		private final Map<String, Integer> mIndexes = new HashMap<String, Integer>();
+		private final List<String> mStrings = new ArrayList<String>();
+
+		int add(String s) {
+			if (s == null) return NONE;
+			Integer index = mIndexes.get(s);
+			if (index == null) {
+				index = mStrings.size();
+				mIndexes.put(s, index);
+				mStrings.add(s);
+			}
+			return index;
+		}
+
+		String[] toArray() {
+			return mStrings.toArray(new String[mStrings.size()]);
+		}
+	}
+
+	/**
+	 * Growable array of ints.
+	 */
+	private static class IntArray {
+		private int[] mData = new int[16];
+		private int mSize = 0;
+
+		void add(int v) {
+			if (mSize == mData.length) {
+				int[] data = new int[mSize * 2];
+				System.arraycopy(mData, 0, data, 0, mSize);
+				mData = data;
+			}
+			mData[mSize++] = v;
+		}
+
+		int[] toArray() {
+			int[] array = new int[mSize];
+			System.arraycopy(mData, 0, array, 0, mSize);
+			return array;
+		}
+	}
+
+}
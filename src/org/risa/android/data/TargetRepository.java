@@ -0,0 +1,167 @@
+package org.risa.android.data;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.risa.android.util.DemoTargetManager;
+
+import android.content.Context;
+
+/**
+ * Repository of all the known targets, indexed by UID.
+ * <p>
+ * Lookups are constant time and lock free, so they can be done from the scan callback 
+ * on every frame.  Targets come from pluggable {@link TargetSource}s and are built lazily,
+ * the first time they are looked up.  All methods are thread safe.
+ * 
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class TargetRepository {
+
+	private static TargetRepository mInstance;
+
+	/**
+	 * UID index of all the targets, hydrated or not.  Replaced as a whole when a new
+	 * catalog is published.
+	 */
+	private volatile ConcurrentMap<String, Entry> mIndex;
+
+	/**
+	 * Index entry of a target, that builds the target the first time it is needed.
+	 */
+	private static class Entry {
+
+		private final TargetSource mSource;
+		private volatile Target mTarget;
+		private boolean mLoaded;
+
+		Entry(TargetSource source, Target target) {
+			mSource = source;
+			mTarget = target;
+			mLoaded = target != null;
+		}
+
+		Target get(String uid) {
+			Target t = mTarget;
+			if (t != null) return t;
+			synchronized (this) {
+				if (!mLoaded) {
+					mTarget = mSource.loadTarget(uid);
+					mLoaded = true;
+				}
+				return mTarget;
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty repository.
+	 */
+	public TargetRepository() {
+		mIndex = new ConcurrentHashMap<String, Entry>();
+	}
+
+	/**
+	 * Returns the repository of the application, which initially holds the bundled demo
+	 * targets.
+	 * 
+	 * @param ctx Context used to access the bundled targets.
+	 * @return The application target repository.
+	 */
+	public static synchronized TargetRepository getInstance(Context ctx) {
+		if (mInstance == null) {
+			mInstance = new TargetRepository();
+			mInstance.addSource(new DemoTargetManager(ctx.getApplicationContext()));
+		}
+		return mInstance;
+	}
+
+	/**
+	 * Registers all the targets of a source.  Targets already registered with the same
+	 * UID are replaced.
+	 * 
+	 * @param source Source to register.
+	 */
+	public void addSource(TargetSource source) {
+		if (source == null)
+			throw new NullPointerException(getClass().getSimpleName() + ".addSource() Illegal null source");
+		for (String uid : source.getUIDs()) {
+			mIndex.put(uid, new Entry(source, null));
+		}
+	}
+
+	/**
+	 * Replaces all the registered targets by the targets of new sources, atomically: lookups
+	 * either see the previous catalog or the new one, never a mix of both.  Targets added to
+	 * the previous catalog while the new one is indexed are discarded.
+	 * 
+	 * @param sources Sources of the new catalog.
+	 */
+	public void publish(TargetSource... sources) {
+		ConcurrentMap<String, Entry> index = new ConcurrentHashMap<String, Entry>();
+		for (TargetSource source : sources) {
+			if (source == null)
+				throw new NullPointerException(getClass().getSimpleName() + ".publish() Illegal null source");
+			for (String uid : source.getUIDs()) {
+				index.put(uid, new Entry(source, null));
+			}
+		}
+		mIndex = index;
+	}
+
+	/**
+	 * Adds an already built target, replacing any target with the same UID.
+	 * 
+	 * @param target Target to add.
+	 */
+	public void addTarget(Target target) {
+		if (target == null)
+			throw new NullPointerException(getClass().getSimpleName() + ".addTarget() Illegal null target");
+		mIndex.put(target.getUID(), new Entry(null, target));
+	}
+
+	/**
+	 * Removes a target.
+	 * 
+	 * @param uid UID of the target to remove.
+	 */
+	public void removeTarget(String uid) {
+		mIndex.remove(uid);
+	}
+
+	/**
+	 * Looks up a target by UID, building it if it has not been yet.
+	 * 
+	 * @param uid Unique ID to look for
+	 * @return null if id is not found, the target with the same unique ID otherwise.
+	 */
+	public Target getTarget(String uid) {
+		if (uid == null) return null;
+		Entry e = mIndex.get(uid);
+		return e == null ? null : e.get(uid);
+	}
+
+	/**
+	 * @param uid Unique ID to look for
+	 * @return Whether a target with the same unique ID is registered, without building it.
+	 */
+	public boolean contains(String uid) {
+		return uid != null && mIndex.containsKey(uid);
+	}
+
+	/**
+	 * @return UIDs of all the registered targets.
+	 */
+	public Collection<String> getUIDs() {
+		return mIndex.keySet();
+	}
+
+	/**
+	 * @return Number of registered targets.
+	 */
+	public int size() {
+		return mIndex.size();
+	}
+
+}
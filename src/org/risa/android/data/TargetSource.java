@@ -0,0 +1,34 @@
+package org.risa.android.data;
+
+import java.util.Collection;
+
+/**
+ * A provider of targets for the {@link TargetRepository}, such as the targets bundled
+ * with the application, a catalog stored on disk or a remote catalog.
+ * <p>
+ * Sources only list the UIDs of their targets up front.  Each target is then built on
+ * demand, the first time it is looked up, so that large catalogs do not have to be
+ * loaded entirely.
+ * 
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public interface TargetSource {
+
+	/**
+	 * Lists the UIDs of all the targets this source provides.  This must be cheap:
+	 * targets should not be built at this point.
+	 * 
+	 * @return UIDs of the targets of this source.
+	 */
+	public Collection<String> getUIDs();
+
+	/**
+	 * Builds the target with the given UID.  Called at most once per UID by the 
+	 * repository, possibly from any thread.
+	 * 
+	 * @param uid UID of the target, as listed by {@link #getUIDs()}
+	 * @return The target, or null if it could not be built.
+	 */
+	public Target loadTarget(String uid);
+
+}
@@ -1,7 +1,8 @@
 package org.risa.android.data;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.risa.android.util.ImageSource;
 import org.risa.android.util.ResourceImageLoader;
@@ -15,87 +16,121 @@ import android.os.Parcelable;
 /**
  * Class that represents a specific vendor or provider of a item.  
  * For the purposes of a demo there have been a couple defaulted 
+ * <p>
+ * Vendors are interned: there is a single canonical instance per vendor id, the case insensitive
+ * name of the vendor, so that vendors can be compared by reference and parceled by id.
  * 
  * @author Michael Hotan, michael.hotan@gmail.com
  */
 public class Vendor implements Parcelable {
 
+	/**
+	 * Normalized id of this Vendor, see {@link #getId(String)}.
+	 */
+	private final String mId;
+
 	/**
 	 * Name of this Vendor
 	 */
-	private String mName;
+	private final String mName;
 
 	/**
 	 * Uri of this particular 
 	 */
-	private Uri mURL;
+	private final Uri mURL;
 	
 	/**
 	 * Logo of the vendor
 	 */
-	private ImageSource mLogo;
+	private volatile ImageSource mLogo;
 
-	public static final Vendor MACYS = new Vendor("Macy's", "http://www.macys.com/");
-	public static final Vendor NORDSTROMS = new Vendor("Nordstrom", "http://shop.nordstrom.com/");
-	public static final Vendor AMAZON = new Vendor("Amazon", "http://www.amazon.com/");
-	private static final Set<Vendor> VENDORS = new HashSet<Vendor>();
+	/**
+	 * Canonical instances of all the known vendors, by id.
+	 */
+	private static final ConcurrentMap<String, Vendor> VENDORS = new ConcurrentHashMap<String, Vendor>();
+
+	public static final Vendor MACYS = valueOf("Macy's", "http://www.macys.com/");
+	public static final Vendor NORDSTROMS = valueOf("Nordstrom", "http://shop.nordstrom.com/");
+	public static final Vendor AMAZON = valueOf("Amazon", "http://www.amazon.com/");
 	static {
 		MACYS.setLogo(new ResourceImageLoader(R.drawable.ic_macys_logo));
 		NORDSTROMS.setLogo(new ResourceImageLoader(R.drawable.ic_nordstrom_logo));
 		AMAZON.setLogo(new ResourceImageLoader(R.drawable.ic_amazon_logo));
-		VENDORS.add(MACYS);
-		VENDORS.add(NORDSTROMS);
-		VENDORS.add(AMAZON);
+	}
+	
+	/**
+	 * Returns the id of a vendor name: the trimmed lower case name.
+	 * 
+	 * @param name Name of a vendor
+	 * @return The id of the vendor.
+	 */
+	public static String getId(String name) {
+		return name.trim().toLowerCase(Locale.US);
 	}
 	
 	/**
 	 * Return the vendor with the same name.  Case insensitive.
 	 * 
 	 * @param name Name of vendor to find
-	 * @return Vendor with the same name as argument
+	 * @return Vendor with the same name as argument, null if it is unknown.
 	 */
 	public static Vendor valueOf(String name) {
-		for (Vendor vendor: VENDORS) {
-			if (vendor.mName.toLowerCase().equals(name.toLowerCase()))
-				return vendor;
-		}
-		return null;
+		if (name == null) return null;
+		return VENDORS.get(getId(name));
 	}
 	
 	/**
-	 * Return the vendor with the same name.  Case insensitive.
+	 * Return the vendor with the same name, registering it if it is unknown.  Case insensitive.
 	 * 
 	 * @param name Name of vendor to find
-	 * @return Vendor with the same name as argument
+	 * @param url Home page of the vendor, only used if it is unknown.
+	 * @return The canonical vendor with the same name as argument
 	 */
 	public static Vendor valueOf(String name, String url) {
-		Vendor v = new Vendor(name, url);
-		if (!VENDORS.contains(v))
-			VENDORS.add(v);
-		return v;
+		if (name == null)
+			throw new IllegalArgumentException("Illegal name of Vendor: " + name);
+		String id = getId(name);
+		Vendor v = VENDORS.get(id);
+		if (v != null) return v;
+		v = new Vendor(id, name, url);
+		Vendor previous = VENDORS.putIfAbsent(id, v);
+		return previous == null ? v : previous;
+	}
+	
+	/**
+	 * Registers vendors in bulk, e.g. when importing a catalog.
+	 * 
+	 * @param names Names of the vendors.
+	 * @param urls Home pages of the vendors, in the same order.
+	 * @return The canonical vendors, in the same order.
+	 */
+	public static Vendor[] valueOf(String[] names, String[] urls) {
+		if (names.length != urls.length)
+			throw new IllegalArgumentException("Vendor names and urls do not match");
+		Vendor[] vendors = new Vendor[names.length];
+		for (int i = 0; i < names.length; ++i)
+			vendors[i] = valueOf(names[i], urls[i]);
+		return vendors;
 	}
 	
 	/**
 	 * Creates a vendor with this name and url.
 	 * 
+	 * @param id Normalized name of the Vendor.
 	 * @param name Human readable name of the Vendor.
 	 * @param url String representation of the home domain of this vendor
 	 */
-	private Vendor(String name, String url) {
-		if (name == null || name.isEmpty())
+	private Vendor(String id, String name, String url) {
+		if (id.isEmpty())
 			throw new IllegalArgumentException("Illegal name of Vendor: " + name);
 		if (url == null || url.isEmpty())
 			throw new IllegalArgumentException("Illegal name of Vendor: " + url);
 		// TODO Check for valid URL.
+		mId = id;
 		mName = name;
 		mURL = Uri.parse(url);
 	}
 
-	private Vendor(Parcel in) {
-		mName = in.readString();
-		mURL = in.readParcelable(Uri.class.getClassLoader());
-	}
-
 	/**
 	 * Sets the logo of this item. Null will remove any existing image source.
 	 * 
@@ -114,6 +149,13 @@ public class Vendor implements Parcelable {
 		return mLogo;
 	}
 	
+	/**
+	 * @return Returns the normalized id of this Vendor.
+	 */
+	public String getId() {
+		return mId;
+	}
+	
 	/**
 	 * @return Returns the name of this Vendor.
 	 */
@@ -136,14 +178,20 @@ public class Vendor implements Parcelable {
 
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
+		// The receiving side usually knows the vendor already, the name and url are only
+		// there to register it when it does not.
+		dest.writeString(mId);
 		dest.writeString(mName);
-		dest.writeParcelable(mURL, 0);
+		dest.writeString(mURL.toString());
 	}
 
 	public static final Parcelable.Creator<Vendor> CREATOR
 	= new Parcelable.Creator<Vendor>() {
 		public Vendor createFromParcel(Parcel in) {
-			return new Vendor(in);
+			Vendor v = VENDORS.get(in.readString());
+			String name = in.readString();
+			String url = in.readString();
+			return v != null ? v : valueOf(name, url);
 		}
 
 		public Vendor[] newArray(int size) {
@@ -152,13 +200,13 @@ public class Vendor implements Parcelable {
 	};
 	
 	public boolean equals(Object o) {
+		if (o == this) return true;
 		if (o == null) return false;
 		if (!o.getClass().equals(getClass())) return false;
-		Vendor v = (Vendor)o;
-		return v.mName.equals(mName) && v.mURL.equals(mURL);
+		return ((Vendor) o).mId.equals(mId);
 	}
 
 	public int hashCode() {
-		return mName.hashCode() * 3 + mURL.hashCode() * 7;
+		return mId.hashCode();
 	}
 }
@@ -3,9 +3,10 @@ package org.risa.android.target;
 import org.risa.android.data.Interactable;
 import org.risa.android.data.Item;
 import org.risa.android.data.Target;
+import org.risa.android.data.TargetParcel;
+import org.risa.android.data.TargetRepository;
 import org.risa.android.target.TargetImageFragment.TargetImageListener;
 import org.risa.android.target.TargetInformationFragment.InformationListener;
-import org.risa.android.util.DemoTargetManager;
 
 import android.content.Intent;
 import android.os.Bundle;
@@ -33,6 +34,12 @@ TargetImageListener, InformationListener {
 	 */
 	public static final String ARG_IMAGE_NAME = TargetActivity.class.getSimpleName() + "_ARG_IMAGE_ID";
 
+	/**
+	 * Argument key for the {@link TargetParcel} of the target, used instead of 
+	 * {@link #ARG_IMAGE_NAME} when present.
+	 */
+	public static final String ARG_TARGET = TargetActivity.class.getSimpleName() + "_ARG_TARGET";
+
 	/**
 	 * This is the amount of exposed pixels in the view that
 	 * slides out and shows the user content
@@ -49,6 +56,11 @@ TargetImageListener, InformationListener {
 	 */
 	private Target mTarget;
 
+	/**
+	 * Parcel of the target, kept to save the state without encoding the target again.
+	 */
+	private TargetParcel mParcel;
+
 	/**
 	 * Fragment manager that handles exchanging fragment.
 	 */
@@ -78,12 +90,9 @@ TargetImageListener, InformationListener {
 		if (frag == null || !frag.isInLayout()) 
 			throw new IllegalStateException("TargetActivity.onCreate(), can't find TargetImageFragment");
 
-		String imageName = null;
 		Intent i = getIntent();
-		if (i != null) {
-			imageName = i.getStringExtra(ARG_IMAGE_NAME);
-			mTarget = DemoTargetManager.getInstance(getApplicationContext()).getDemoTarget(imageName);
-		}
+		if (i != null)
+			setTarget(i.getExtras());
 
 		mFragManager = getSupportFragmentManager();
 
@@ -108,8 +117,9 @@ TargetImageListener, InformationListener {
 	@Override
 	public void onSaveInstanceState(Bundle savedInstanceState) {
 
-		// TODO Save State of Target
-		savedInstanceState.putString(ARG_IMAGE_NAME, mTarget.getUID());
+		if (mParcel == null && mTarget != null)
+			mParcel = new TargetParcel(mTarget);
+		savedInstanceState.putParcelable(ARG_TARGET, mParcel);
 
 		// Always call the superclass so it can save the view hierarchy state
 		super.onSaveInstanceState(savedInstanceState);
@@ -122,8 +132,25 @@ TargetImageListener, InformationListener {
 		if (savedInstanceState == null) return;
 
 		// TODO Restore state members from saved instance
-		String uid = savedInstanceState.getString(ARG_IMAGE_NAME);
-		mTarget = DemoTargetManager.getInstance(getApplicationContext()).getDemoTarget(uid);
+		setTarget(savedInstanceState);
+	}
+
+	/**
+	 * Resolves the target from its parcel, or from its UID when there is no parcel.
+	 * 
+	 * @param args Intent extras or saved state.
+	 */
+	private void setTarget(Bundle args) {
+		if (args == null) return;
+		TargetRepository repository = TargetRepository.getInstance(getApplicationContext());
+		TargetParcel parcel = args.getParcelable(ARG_TARGET);
+		if (parcel != null) {
+			mParcel = parcel;
+			mTarget = parcel.getTarget(repository);
+		} else {
+			mParcel = null;
+			mTarget = repository.getTarget(args.getString(ARG_IMAGE_NAME));
+		}
 	}
 
 	@Override
@@ -4,6 +4,7 @@ import java.util.List;
 
 import org.risa.android.data.Interactable;
 import org.risa.android.data.Item;
+import org.risa.android.data.ItemPoint;
 import org.risa.android.data.Target;
 import org.risa.android.target.TargetTouchListener.OnInteractionOccurredListener;
 
@@ -11,7 +12,9 @@ import uk.co.senab.photoview.PhotoViewAttacher;
 import uk.co.senab.photoview.PhotoViewAttacher.OnMatrixChangedListener;
 import uk.co.senab.photoview.PhotoViewAttacher.OnPhotoTapListener;
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.Log;
 import android.view.View;
@@ -65,6 +68,18 @@ OnMatrixChangedListener, OnPhotoTapListener {
 	 * 	IF mFocusedInteractable is not null then this interactable is the only thing drawn.
 	 */
 	private Interactable mFocusedInteractable;
+
+	/*
+	 * Overlay layout: the items it was computed for, the canvas size, and the boundaries of each 
+	 * interactable in drawing order.  It is only computed again when the items, the canvas size
+	 * or the image matrix change, so that drawing and hit-testing only read it.
+	 */
+	private List<Item> mLayoutItems;
+	private int mLayoutWidth, mLayoutHeight;
+	private int mLayoutCount;
+	private Interactable[] mLayoutInteractables = new Interactable[0];
+	private int[] mLayoutBounds = new int[0];
+	private final Rect mScratchBounds = new Rect();
 	
 	/**
 	 * Creates a target image view from a resource id.
@@ -100,24 +115,99 @@ OnMatrixChangedListener, OnPhotoTapListener {
 	protected void onDraw(Canvas canvas) {
 		super.onDraw(canvas);
 		
-		// TODO This is the easiest way update all the points.
-		// Because the underlying data structure is a map adding points 
-		// is not bad.   However we need to check if we have to recalculate the points every time.
-		mTouchListener.clear();
-		
-		// Draw all the points as well as register the space that users can select.
+		Resources res = getResources();
 		List<Item> items = mTarget.getItems();
+		if (items != mLayoutItems || canvas.getWidth() != mLayoutWidth || canvas.getHeight() != mLayoutHeight)
+			layout(res, canvas, items);
 		
 		// IF we are focused on drawing exactly one target then draw it and exit.
-		if (mFocusedInteractable != null && items.contains(mFocusedInteractable)) {
-			mFocusedInteractable.onDrawSelf(getResources(), canvas);
+		int focused = indexOf(mFocusedInteractable);
+		if (focused >= 0) {
+			draw(res, canvas, focused);
 			return;
 		}
 		
-		for (Interactable i: items) {
-			i.onDrawSelf(getResources(), canvas);
-			mTouchListener.registerInteractable(i.getBounds(getResources(), canvas), i);
+		for (int i = 0; i < mLayoutCount; ++i) {
+			draw(res, canvas, i);
+		}
+	}
+
+	/**
+	 * Draws an interactable at its boundaries in the layout.
+	 */
+	private void draw(Resources res, Canvas canvas, int index) {
+		Interactable i = mLayoutInteractables[index];
+		if (i instanceof ItemPoint)
+			((ItemPoint) i).onDrawSelf(res, canvas, mLayoutBounds[4 * index], mLayoutBounds[4 * index + 1]);
+		else
+			i.onDrawSelf(res, canvas);
+	}
+
+	/**
+	 * Computes the boundaries of all the items on a canvas, and registers the space 
+	 * that users can select.
+	 */
+	private void layout(Resources res, Canvas canvas, List<Item> items) {
+		int width = canvas.getWidth();
+		int height = canvas.getHeight();
+		int count = items.size();
+		if (mLayoutInteractables.length < count) {
+			mLayoutInteractables = new Interactable[count];
+			mLayoutBounds = new int[4 * count];
+		}
+		for (int i = 0; i < count; ++i) {
+			Item item = items.get(i);
+			Rect bounds = mScratchBounds;
+			if (item instanceof ItemPoint) {
+				((ItemPoint) item).getBounds(res, width, height, bounds);
+			} else {
+				bounds = item.getBounds(res, canvas);
+			}
+			mLayoutInteractables[i] = item;
+			mLayoutBounds[4 * i] = bounds.left;
+			mLayoutBounds[4 * i + 1] = bounds.top;
+			mLayoutBounds[4 * i + 2] = bounds.right;
+			mLayoutBounds[4 * i + 3] = bounds.bottom;
 		}
+		for (int i = count; i < mLayoutCount; ++i) {
+			mLayoutInteractables[i] = null;
+		}
+		mLayoutItems = items;
+		mLayoutWidth = width;
+		mLayoutHeight = height;
+		mLayoutCount = count;
+		registerInteractables();
+	}
+
+	/**
+	 * Registers the space that users can select: none while an item is focused. 
+	 */
+	private void registerInteractables() {
+		mTouchListener.clear();
+		if (indexOf(mFocusedInteractable) >= 0) return;
+		for (int i = 0; i < mLayoutCount; ++i) {
+			mTouchListener.registerInteractable(mLayoutBounds[4 * i], mLayoutBounds[4 * i + 1], 
+					mLayoutBounds[4 * i + 2], mLayoutBounds[4 * i + 3], mLayoutInteractables[i]);
+		}
+	}
+
+	/**
+	 * @return Index of the interactable in the layout, -1 if it is not there.
+	 */
+	private int indexOf(Interactable interactable) {
+		if (interactable == null) return -1;
+		for (int i = 0; i < mLayoutCount; ++i) {
+			if (interactable.equals(mLayoutInteractables[i])) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Discards the layout, it is computed again on the next draw.
+	 */
+	private void invalidateLayout() {
+		mLayoutItems = null;
+		invalidate();
 	}
 	
 	/**
@@ -127,6 +217,7 @@ OnMatrixChangedListener, OnPhotoTapListener {
 	 */
 	public void setFocused(Interactable toFocus) {
 		mFocusedInteractable = toFocus;
+		registerInteractables();
 		invalidate();
 	}
 
@@ -135,6 +226,7 @@ OnMatrixChangedListener, OnPhotoTapListener {
 	 */
 	public void clearFocus() {
 		mFocusedInteractable = null;
+		registerInteractables();
 		invalidate();
 	}
 	
@@ -147,6 +239,7 @@ OnMatrixChangedListener, OnPhotoTapListener {
 	public void onMatrixChanged(RectF rect) {
 		Log.i(LOG_TAG, "Bounds are TL: { " + rect.left + ", " + rect.top + 
 				" } W: " + rect.width() + " H: " + rect.height());
+		invalidateLayout();
 	}
 
 }
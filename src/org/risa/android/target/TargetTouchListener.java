@@ -1,15 +1,14 @@
 package org.risa.android.target;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import org.risa.android.data.Interactable;
 
-import android.graphics.Point;
 import android.graphics.Rect;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnTouchListener;
+import android.view.ViewConfiguration;
 
 /**
  * Class that manages the touch interactions on an image view that contains a target.
@@ -20,12 +19,39 @@ import android.view.View.OnTouchListener;
 public class TargetTouchListener implements OnTouchListener {
 
 	/**
-	 * Mapping of all the taken rectangular bounderies.  Each rectangular boundary must
-	 * map to an Interactable.  This way boundaries can only be defined to 
-	 * have some kind of actionable behavior.  Or it is not defined at all.
-	 * 
+	 * Smallest size of the grid cells, in pixels.
+	 */
+	private static final int MIN_CELL_SIZE = 8;
+
+	/*
+	 * Registered boundaries and their interactable, in registration order.  Each boundary must
+	 * map to an Interactable.  This way boundaries can only be defined to have some kind of 
+	 * actionable behavior.  Or it is not defined at all.
 	 */
-	private final Map<Rect, Interactable> mMapping; 
+	private int[] mLeft = new int[16];
+	private int[] mTop = new int[16];
+	private int[] mRight = new int[16];
+	private int[] mBottom = new int[16];
+	private Interactable[] mItems = new Interactable[16];
+	private int mCount = 0;
+
+	/*
+	 * Uniform grid over the registered boundaries, rebuilt only when they change.  The boundaries 
+	 * overlapping cell c are mCellItems[mCellStart[c]] to mCellItems[mCellStart[c + 1] - 1].
+	 * mDirty is set when a registered boundary differs from the one the grid was built with,
+	 * and mBuiltCount is the number of boundaries it was built with.
+	 */
+	private boolean mDirty = false;
+	private int mBuiltCount = 0;
+	private int mGridLeft, mGridTop, mCellSize, mColumns, mRows;
+	private int[] mCellStart = new int[1];
+	private int[] mCellItems = new int[0];
+	private int[] mCellFill = new int[0];
+
+	/**
+	 * Distance in pixels a touch can be from a boundary and still select it.
+	 */
+	private int mTouchSlop = -1;
 
 	/**
 	 * Class that wishes to listen to specific interaction request.
@@ -33,16 +59,15 @@ public class TargetTouchListener implements OnTouchListener {
 	private OnInteractionOccurredListener mListener;
 
 	/**
-	 * Object that indentifies the location of last original press down.
+	 * Object that indentifies the interactable of last original press down.
 	 * Note that this null before any press down.
 	 */
-	private Rect mLastDownBounds;
+	private Interactable mLastDown;
 
 	/**
 	 * Creates a Target Touch Listener without any registered interactable points.
 	 */
 	public TargetTouchListener() {
-		mMapping = new HashMap<Rect, Interactable>();
 	}
 
 	/**
@@ -63,33 +88,66 @@ public class TargetTouchListener implements OnTouchListener {
 		return mListener;
 	}
 
+	/**
+	 * Sets the distance in pixels a touch can be from a boundary and still select it.
+	 * By default the touch slop of the view is used.
+	 * 
+	 * @param slop Touch slop in pixels.
+	 */
+	public void setTouchSlop(int slop) {
+		if (slop < 0) throw new IllegalArgumentException("Illegal negative touch slop: " + slop);
+		mTouchSlop = slop;
+	}
+
 	/**
 	 * Attempts to add an interactable item to a cosntrained boundary.
+	 * <p>
+	 * Boundaries may overlap: touches select the closest one.
+	 * Registering the same boundaries again after a {@link #clear()} does not rebuild the
+	 * spatial index, so they can be registered again on every draw.
 	 * 
-	 * @param bounds Bounds to set to the interactable item
+	 * @param bounds Bounds to set to the interactable item, not retained.
 	 * @param item Interactable item to reference upon selection.
-	 * @return true if we were able to register an interactable item, false otherwise.
+	 * @return true if we were able to register an interactable item, false if the bounds are empty.
 	 */
 	public boolean registerInteractable(Rect bounds, Interactable item) {
 		if (bounds == null) 
 			throw new NullPointerException("TargetTouchListener.registerInteractable(): " +
 					"Can't register null boundary for selection");
+		return registerInteractable(bounds.left, bounds.top, bounds.right, bounds.bottom, item);
+	}
+
+	/**
+	 * Attempts to add an interactable item to a cosntrained boundary.
+	 * 
+	 * @param left Left of the bounds.
+	 * @param top Top of the bounds.
+	 * @param right Right of the bounds, exclusive.
+	 * @param bottom Bottom of the bounds, exclusive.
+	 * @param item Interactable item to reference upon selection.
+	 * @return true if we were able to register an interactable item, false if the bounds are empty.
+	 * @see #registerInteractable(Rect, Interactable)
+	 */
+	public boolean registerInteractable(int left, int top, int right, int bottom, Interactable item) {
 		if (item == null)
 			throw new NullPointerException("TargetTouchListener.registerInteractable(): " +
 					"Can't register null interactable item");
+		if (left >= right || top >= bottom)
+			return false;
 
-
-		// Mapping is not allowed to have any overlapping boundaries.
-		// Currently, it is impossible to determine which interactable 
-		// event has priority over another if they intersect.  So best to 
-		// not let it happen at all.
-		for (Rect rect : mMapping.keySet()) {
-			if (rect.intersect(bounds))
-				return false;
+		int i = mCount;
+		if (i == mItems.length)
+			grow();
+		if (mLeft[i] != left || mTop[i] != top || mRight[i] != right || mBottom[i] != bottom
+				|| mItems[i] != item) {
+			mLeft[i] = left;
+			mTop[i] = top;
+			mRight[i] = right;
+			mBottom[i] = bottom;
+			mItems[i] = item;
+			mDirty = true;
 		}
-
-		// Place the bounds and the interactable.
-		mMapping.put(bounds, item);
+		mCount = i + 1;
 		return true;
 	}
 
@@ -97,31 +155,52 @@ public class TargetTouchListener implements OnTouchListener {
 	 * Clear all the elements within the mapping.
 	 */
 	public void clear() {
-		mMapping.clear();
+		// The previous boundaries are kept to detect when the same ones are registered again.
+		mCount = 0;
+	}
+
+	/**
+	 * Finds the interactable whose boundary is the closest to a point, within the touch slop.
+	 * When several boundaries contain the point, the one whose center is the closest wins.
+	 * 
+	 * @param x X coordinate of the point.
+	 * @param y Y coordinate of the point.
+	 * @param slop Maximum distance to the boundary.
+	 * @return The closest interactable, null if there is none within the slop.
+	 */
+	public Interactable findInteractable(int x, int y, int slop) {
+		int i = find(x, y, slop);
+		return i < 0 ? null : mItems[i];
 	}
 
 	@Override
 	public boolean onTouch(View v, MotionEvent event) {
-		Point p = new Point((int)event.getX(), (int)event.getY());
-		Rect bounds = getContainingBoundary(p);
+		if (mTouchSlop < 0)
+			mTouchSlop = ViewConfiguration.get(v.getContext()).getScaledTouchSlop();
+		int index = find((int) event.getX(), (int) event.getY(), mTouchSlop);
+		Interactable touched = index < 0 ? null : mItems[index];
 
-		
 		switch (event.getAction()) {
 
-		// On a down press intialize the bounds we are currently in.
+		// On a down press intialize the interactable we are currently in.
 		case MotionEvent.ACTION_DOWN:
-			mLastDownBounds = bounds;
+			mLastDown = touched;
 			break;
 		case MotionEvent.ACTION_UP:
-			if (mLastDownBounds == null || !mLastDownBounds.equals(bounds)) {
-				mLastDownBounds = null;
+			if (mListener == null) {
+				mLastDown = null;
+			} else if (mLastDown == null || mLastDown != touched) {
+				mLastDown = null;
 				mListener.onClearSelected();
 			} else { 
-				// We have a bounds match between the down and up press.
+				// We have a match between the down and up press.
 				// This shows direct intent on whatever area we are looking in.
-				Interactable i = mMapping.get(bounds);
-				mListener.onInteractableSelected(i);
+				mListener.onInteractableSelected(touched);
 			}
+			break;
+		case MotionEvent.ACTION_CANCEL:
+			mLastDown = null;
+			break;
 		}
 
 		// We want to consume the event because all touches 
@@ -130,18 +209,132 @@ public class TargetTouchListener implements OnTouchListener {
 	}
 
 	/**
-	 * Attempts to find a registered boundary that contains argument Point p.
-	 * <b>If none can be found then null is returned.
+	 * Finds the registered boundary closest to a point, within a distance.
 	 * 
-	 * @param p Point that will be contained in return boundary.
-	 * @return Return containing boundary or null if there is no containing boundary.
+	 * @return Index of the boundary, -1 if there is none.
 	 */
-	private Rect getContainingBoundary(Point p) {
-		for (Rect r: mMapping.keySet()) {
-			if (r.contains(p.x, p.y))
-				return r;
+	private int find(int x, int y, int slop) {
+		if (mDirty || mCount != mBuiltCount)
+			build();
+		if (mCount == 0)
+			return -1;
+
+		// Only the cells around the point within the slop can hold candidates.
+		int c0 = Math.max(0, (x - slop - mGridLeft) / mCellSize);
+		int c1 = Math.min(mColumns - 1, (x + slop - mGridLeft) / mCellSize);
+		int r0 = Math.max(0, (y - slop - mGridTop) / mCellSize);
+		int r1 = Math.min(mRows - 1, (y + slop - mGridTop) / mCellSize);
+		if (x + slop < mGridLeft || y + slop < mGridTop) 
+			return -1;
+
+		int best = -1;
+		long bestDistance = (long) slop * slop;
+		long bestCenter = Long.MAX_VALUE;
+		for (int r = r0; r <= r1; ++r) {
+			for (int c = c0; c <= c1; ++c) {
+				int cell = r * mColumns + c;
+				for (int k = mCellStart[cell]; k < mCellStart[cell + 1]; ++k) {
+					int i = mCellItems[k];
+					// Distance from the point to the boundary, 0 inside.
+					long dx = Math.max(0, Math.max(mLeft[i] - x, x - (mRight[i] - 1)));
+					long dy = Math.max(0, Math.max(mTop[i] - y, y - (mBottom[i] - 1)));
+					long d = dx * dx + dy * dy;
+					if (d > bestDistance) continue;
+					long cx = 2L * x - mLeft[i] - mRight[i];
+					long cy = 2L * y - mTop[i] - mBottom[i];
+					long center = cx * cx + cy * cy;
+					if (d < bestDistance || center < bestCenter || (center == bestCenter && i < best)) {
+						best = i;
+						bestDistance = d;
+						bestCenter = center;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Builds the uniform grid over the registered boundaries.
+	 */
+	private void build() {
+		mDirty = false;
+		int n = mCount;
+		mBuiltCount = n;
+		if (n == 0) {
+			mColumns = mRows = 0;
+			return;
+		}
+		int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+		long size = 0;
+		for (int i = 0; i < n; ++i) {
+			left = Math.min(left, mLeft[i]);
+			top = Math.min(top, mTop[i]);
+			right = Math.max(right, mRight[i]);
+			bottom = Math.max(bottom, mBottom[i]);
+			size += Math.max(mRight[i] - mLeft[i], mBottom[i] - mTop[i]);
 		}
-		return null;
+
+		// Cells about the size of the average boundary, without more cells than 4 per boundary.
+		int cell = Math.max(MIN_CELL_SIZE, (int) (size / n));
+		while ((long) ((right - left) / cell + 1) * ((bottom - top) / cell + 1) > 4L * n + 16)
+			cell *= 2;
+		mGridLeft = left;
+		mGridTop = top;
+		mCellSize = cell;
+		mColumns = (right - 1 - left) / cell + 1;
+		mRows = (bottom - 1 - top) / cell + 1;
+
+		// Count the boundaries of each cell, then fill the cells.
+		int cells = mColumns * mRows;
+		if (mCellStart.length < cells + 1)
+			mCellStart = new int[cells + 1];
+		else
+			Arrays.fill(mCellStart, 0, cells + 1, 0);
+		int total = 0;
+		for (int i = 0; i < n; ++i) {
+			for (int r = row(mTop[i]); r <= row(mBottom[i] - 1); ++r) {
+				for (int c = column(mLeft[i]); c <= column(mRight[i] - 1); ++c) {
+					++mCellStart[r * mColumns + c + 1];
+					++total;
+				}
+			}
+		}
+		for (int c = 0; c < cells; ++c)
+			mCellStart[c + 1] += mCellStart[c];
+		if (mCellItems.length < total)
+			mCellItems = new int[total];
+		if (mCellFill.length < cells)
+			mCellFill = new int[cells];
+		else
+			Arrays.fill(mCellFill, 0, cells, 0);
+		int[] fill = mCellFill;
+		for (int i = 0; i < n; ++i) {
+			for (int r = row(mTop[i]); r <= row(mBottom[i] - 1); ++r) {
+				for (int c = column(mLeft[i]); c <= column(mRight[i] - 1); ++c) {
+					int cellIndex = r * mColumns + c;
+					mCellItems[mCellStart[cellIndex] + fill[cellIndex]++] = i;
+				}
+			}
+		}
+	}
+
+	private int column(int x) {
+		return (x - mGridLeft) / mCellSize;
+	}
+
+	private int row(int y) {
+		return (y - mGridTop) / mCellSize;
+	}
+
+	private void grow() {
+		int size = mItems.length * 2;
+		mLeft = Arrays.copyOf(mLeft, size);
+		mTop = Arrays.copyOf(mTop, size);
+		mRight = Arrays.copyOf(mRight, size);
+		mBottom = Arrays.copyOf(mBottom, size);
+		mItems = Arrays.copyOf(mItems, size);
 	}
 
 	/**
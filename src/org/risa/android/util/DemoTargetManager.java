@@ -1,9 +1,10 @@
 package org.risa.android.util;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import org.risa.android.data.DemoTarget;
 import org.risa.android.data.Item;
@@ -11,6 +12,8 @@ import org.risa.android.data.ItemPoint;
 import org.risa.android.data.PurchaseDetails;
 import org.risa.android.data.RectangularDimension;
 import org.risa.android.data.Target;
+import org.risa.android.data.TargetRepository;
+import org.risa.android.data.TargetSource;
 import org.risa.android.data.Vendor;
 
 import android.content.Context;
@@ -19,38 +22,57 @@ import android.content.res.Resources;
 import com.aqt.qin.R;
 
 /**
- * Class that handles the storage of demo targets.  Statically add more target images in here 
- * if you want to add more to the demo.
+ * Source of the demo targets bundled with the application.  Statically add more target 
+ * images in here if you want to add more to the demo.
+ * <p>
+ * Targets are only built when first looked up in the {@link TargetRepository}.
  * 
  * @author Michael Hotan, michael.hotan@gmail.com
  */
-public class DemoTargetManager {
+public class DemoTargetManager implements TargetSource {
+
+	private static final String VERSACE_UID = "versace_ad_1";
+	private static final String SCARLLET_UID = "scarllet";
+	private static final String LEBRON_UID = "lebron";
 
 	/**
-	 * Complete collection of targets.
+	 * UIDs of all the bundled targets.
 	 */
-	private final Set<Target> mTargets;
-
-	private static DemoTargetManager mInstance;
+	private static final Collection<String> UIDS = Collections.unmodifiableList(
+			Arrays.asList(VERSACE_UID, SCARLLET_UID, LEBRON_UID));
 
 	private static List<ImageSource> mPenguinImages;
 
+	private final Resources mResources;
 
-	private static DemoTarget SCARLLET, LEBRON;
+	/**
+	 * Creates the source of bundled targets.
+	 * 
+	 * @param ctx Context used to access the target resources.
+	 */
+	public DemoTargetManager(Context ctx) {
+		mResources = ctx.getResources();
+	}
 
-	private DemoTargetManager(Context ctx) {
-		mTargets = new HashSet<Target>();
-		mTargets.add(getVersace(ctx.getResources()));
-		mTargets.add(getScarlett(ctx.getResources()));
-		mTargets.add(getLebron(ctx.getResources()));
+	@Override
+	public Collection<String> getUIDs() {
+		return UIDS;
 	}
 
-	private static Target getVersace(Resources res) {
-		// Add the Versace advertisement.
-		String versace_uid = "versace_ad_1";
+	@Override
+	public Target loadTarget(String uid) {
+		if (VERSACE_UID.equals(uid))
+			return getVersace(mResources);
+		if (SCARLLET_UID.equals(uid))
+			return getScarlett(mResources);
+		if (LEBRON_UID.equals(uid))
+			return getLebron(mResources);
+		return null;
+	}
 
+	private static Target getVersace(Resources res) {
 		// TODO: Add content to info
-		DemoTarget t = new DemoTarget("Versace", versace_uid, res, R.raw.versace_ad);
+		DemoTarget t = new DemoTarget("Versace", VERSACE_UID, res, R.raw.versace_ad);
 
 		// Add the Versace Dress
 		Item item = getItem("Dress", t.getDimensions(), 400, 372, 149.99f);
@@ -76,81 +98,57 @@ public class DemoTargetManager {
 	 * @return Returns Scarllet Johansen advertisement.
 	 */
 	private static Target getScarlett(Resources res) {
-		if (SCARLLET != null) return SCARLLET;
-
 		// Create the initial target
-		SCARLLET = new DemoTarget("Scarlett wearing Victoria Beckham", "scarllet", res, R.raw.scarllet);
+		DemoTarget t = new DemoTarget("Scarlett wearing Victoria Beckham", SCARLLET_UID, res, R.raw.scarllet);
 
 		// Add the Dress 
-		Item item = getItem("Victoria Beckham Classic White Dress", SCARLLET.getDimensions(), 295, 242, 499.99f);
+		Item item = getItem("Victoria Beckham Classic White Dress", t.getDimensions(), 295, 242, 499.99f);
 		item.addImage(new ResourceImageLoader(R.raw.dress1));
 		item.addImage(new ResourceImageLoader(R.raw.dress2));
 		item.setDetails("Scarlett showing off Victoria Beckham's sexy white dress in Febuary 2013 UK Elle magazine");
-		SCARLLET.addItem(item);
+		t.addItem(item);
 
 		// Add the ring 337 358
-		item = getItem("Diamond Stackable Jagged Knuckle Ring", SCARLLET.getDimensions(), 337, 358, 1199.99f);
+		item = getItem("Diamond Stackable Jagged Knuckle Ring", t.getDimensions(), 337, 358, 1199.99f);
 		item.addImage(new ResourceImageLoader(R.raw.ring1));
 		item.addImage(new ResourceImageLoader(R.raw.ring2));
 		item.addImage(new ResourceImageLoader(R.raw.ring3));
 		item.addImage(new ResourceImageLoader(R.raw.ring4));
 		item.setDetails("Fancy ring");
-		SCARLLET.addItem(item);
+		t.addItem(item);
 
 		// Add the shoes 264 700
-		item = getItem("Lace up White Boots", SCARLLET.getDimensions(), 264, 700, 299.99f);
+		item = getItem("Lace up White Boots", t.getDimensions(), 264, 700, 299.99f);
 		item.addImage(new ResourceImageLoader(R.raw.whiteshoe1));
 		item.setDetails("White lace up open toe boots");
-		SCARLLET.addItem(item);
+		t.addItem(item);
 
-		return SCARLLET;
+		return t;
 	}
 
 	private static Target getLebron(Resources res) {
-		if (LEBRON != null) return LEBRON;
-		LEBRON = new DemoTarget("The King's new kicks", "lebron", res, R.raw.lebron);
+		DemoTarget t = new DemoTarget("The King's new kicks", LEBRON_UID, res, R.raw.lebron);
 
 		// 313 300  Add the basketball shoes
-		Item item = getItem("Lebron 11", LEBRON.getDimensions(), 313, 300, 129.99f);
+		Item item = getItem("Lebron 11", t.getDimensions(), 313, 300, 129.99f);
 		item.addImage(new ResourceImageLoader(R.raw.lebron11_1));
 		item.addImage(new ResourceImageLoader(R.raw.lebron11_2));
 		item.addImage(new ResourceImageLoader(R.raw.lebron11_3));
 		item.setDetails("Lebron James newest basketball shoes.  looks like a pair of shoes for some colorful robots");
-		LEBRON.addItem(item);
+		t.addItem(item);
 
 		// 323 29 Add the headband
-		item = getItem("The King headband", LEBRON.getDimensions(), 323, 29, 19.99f);
+		item = getItem("The King headband", t.getDimensions(), 323, 29, 19.99f);
 		item.addImage(new ResourceImageLoader(R.raw.headband1));
 		item.addImage(new ResourceImageLoader(R.raw.headband2));
 		item.addImage(new ResourceImageLoader(R.raw.headband3));
 		item.addImage(new ResourceImageLoader(R.raw.headband4));
 		item.setDetails("Expensive piece of cloth for wiping sweat from your head.");
-		LEBRON.addItem(item);
+		t.addItem(item);
 		
-		return LEBRON;
-	}
-
-
-	public static DemoTargetManager getInstance(Context ctx) {
-		if (mInstance == null)
-			mInstance = new DemoTargetManager(ctx);
-		return mInstance;
-	} 
-
-	/**
-	 * Attempts to get a preregistered DemoTarget by the unique name
-	 * 
-	 * @param uniqueId Unique ID to look for
-	 * @return null if id is not found, DemoTarget with same unique name otherwise.
-	 */
-	public Target getDemoTarget(String uniqueId) {
-		for (Target target : mTargets)
-			if (target.getUID().equals(uniqueId))
-				return target;
-		return null;
+		return t;
 	}
 
-
 	private static Item getItem(String itemName, 
 			RectangularDimension targetDimension, 
 			int x, int y,
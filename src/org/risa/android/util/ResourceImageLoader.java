@@ -34,6 +34,13 @@ public class ResourceImageLoader implements ImageSource, Parcelable {
 		mResourceID = in.readInt();
 	}
 
+	/**
+	 * @return Resource ID of the image.
+	 */
+	public int getResourceID() {
+		return mResourceID;
+	}
+
 	@Override
 	public int describeContents() {
 		return 0;
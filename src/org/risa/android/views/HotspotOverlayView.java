@@ -0,0 +1,263 @@
+package org.risa.android.views;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.risa.android.data.Item;
+import org.risa.android.data.ItemPoint;
+import org.risa.android.data.RectangularDimension;
+import org.risa.android.data.Target;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.moodstocks.android.Result;
+
+/**
+ * Transparent view drawn over the camera preview, that projects the item
+ * hotspots of a recognized target onto the live preview.
+ * <p>
+ * Each recognition result provides the homography linking the target image
+ * and the camera frame, which is used to project the target outline and its
+ * {@link ItemPoint}s. Poses are smoothed over consecutive results to avoid
+ * jitter. Only paths and circles are drawn, which the hardware accelerated
+ * canvas handles natively, and all the drawing structures are allocated once
+ * per target, so that updating and drawing the overlay does not allocate.
+ * 
+ * @author Michael Hotan, michael.hotan@gmail.com
+ */
+public class HotspotOverlayView extends View {
+
+	/**
+	 * Weight of the newest pose when smoothing, in (0, 1].
+	 */
+	private static final float SMOOTHING = 0.5f;
+
+	/**
+	 * Hotspot radius, in dp.
+	 */
+	private static final float HOTSPOT_RADIUS_DP = 12;
+
+	/**
+	 * Distance in dp within which a touch selects a hotspot.
+	 */
+	private static final float TOUCH_RADIUS_DP = 32;
+
+	/**
+	 * Target image corners, in the [-1, 1] target coordinate system.
+	 */
+	private static final float[] TARGET_CORNERS = {-1, -1, 1, -1, 1, 1, -1, 1};
+
+	/**
+	 * Listener notified when a hotspot is tapped.
+	 */
+	public interface OnHotspotClickListener {
+
+		/**
+		 * Notifies that a hotspot has been tapped.
+		 * 
+		 * @param target Target currently tracked.
+		 * @param item Item whose hotspot was tapped.
+		 */
+		public void onHotspotClick(Target target, Item item);
+	}
+
+	private final Paint mOutlinePaint;
+	private final Paint mHotspotPaint;
+	private final Path mOutline = new Path();
+	private final float mHotspotRadius;
+	private final float mTouchRadius;
+
+	/**
+	 * Target being tracked and its hotspots.
+	 */
+	private Target mTarget;
+	private final List<Item> mItems = new ArrayList<Item>();
+
+	/**
+	 * Target corners followed by the hotspots, as [x1, y1, x2, ...]:
+	 * in the target coordinate system, as projected by the last result,
+	 * and smoothed in the [-1, 1] view coordinate system.
+	 */
+	private float[] mPoints = new float[0];
+	private float[] mProjected = new float[0];
+	private float[] mSmoothed = new float[0];
+	private boolean mVisible = false;
+
+	private OnHotspotClickListener mListener;
+
+	public HotspotOverlayView(Context context) {
+		this(context, null);
+	}
+
+	public HotspotOverlayView(Context context, AttributeSet attrs) {
+		this(context, attrs, 0);
+	}
+
+	public HotspotOverlayView(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		float density = getResources().getDisplayMetrics().density;
+		mHotspotRadius = HOTSPOT_RADIUS_DP * density;
+		mTouchRadius = TOUCH_RADIUS_DP * density;
+
+		mOutlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		mOutlinePaint.setStyle(Paint.Style.STROKE);
+		mOutlinePaint.setStrokeWidth(TypedValue.applyDimension(
+				TypedValue.COMPLEX_UNIT_DIP, 2, getResources().getDisplayMetrics()));
+		mOutlinePaint.setColor(Color.argb(160, 255, 255, 255));
+
+		mHotspotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		mHotspotPaint.setColor(Color.argb(200, 255, 140, 0));
+	}
+
+	/**
+	 * @param listener Listener to notify when a hotspot is tapped.
+	 */
+	public void setOnHotspotClickListener(OnHotspotClickListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * @return Target currently tracked, or null if none.
+	 */
+	public Target getTarget() {
+		return mTarget;
+	}
+
+	/**
+	 * Sets the target whose hotspots to draw.  Its {@link ItemPoint}s are converted
+	 * once into the target coordinate system used by the homography.
+	 * 
+	 * @param target Target to track, or null to stop tracking.
+	 */
+	public void setTarget(Target target) {
+		if (target == mTarget) return;
+		mTarget = target;
+		mItems.clear();
+		mVisible = false;
+
+		int n = TARGET_CORNERS.length / 2;
+		RectangularDimension dim = target == null ? null : target.getDimensions();
+		if (dim != null && dim.getWidth() > 0 && dim.getHeight() > 0) {
+			for (Item item : target.getItems()) {
+				if (item instanceof ItemPoint) mItems.add(item);
+			}
+		}
+		n += mItems.size();
+		mPoints = new float[2 * n];
+		mProjected = new float[2 * n];
+		mSmoothed = new float[2 * n];
+		System.arraycopy(TARGET_CORNERS, 0, mPoints, 0, TARGET_CORNERS.length);
+		for (int i = 0; i < mItems.size(); ++i) {
+			ItemPoint p = (ItemPoint) mItems.get(i);
+			int o = TARGET_CORNERS.length + 2 * i;
+			mPoints[o] = 2f * p.getX() / dim.getWidth() - 1;
+			mPoints[o + 1] = 2f * p.getY() / dim.getHeight() - 1;
+		}
+		invalidate();
+	}
+
+	/**
+	 * Updates the pose of the tracked target from a recognition result.
+	 * 
+	 * @param result Result holding the homography of the tracked target.
+	 * @param rotation Screen rotation, among the Surface ROTATION_* values.
+	 * @return false if the result has no homography, in which case the overlay is hidden.
+	 */
+	public boolean update(Result result, int rotation) {
+		if (mTarget == null || result == null 
+				|| !result.projectPoints(mPoints, 0, mProjected, 0, mPoints.length / 2, rotation)) {
+			clear();
+			return false;
+		}
+		if (!mVisible) {
+			System.arraycopy(mProjected, 0, mSmoothed, 0, mProjected.length);
+			mVisible = true;
+		} else {
+			for (int i = 0; i < mSmoothed.length; ++i) {
+				mSmoothed[i] += SMOOTHING * (mProjected[i] - mSmoothed[i]);
+			}
+		}
+		invalidate();
+		return true;
+	}
+
+	/**
+	 * Hides the overlay until the next update.
+	 */
+	public void clear() {
+		if (!mVisible) return;
+		mVisible = false;
+		invalidate();
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (!mVisible) return;
+
+		mOutline.reset();
+		for (int i = 0; i < TARGET_CORNERS.length / 2; ++i) {
+			float x = toViewX(mSmoothed[2 * i]);
+			float y = toViewY(mSmoothed[2 * i + 1]);
+			if (i == 0) mOutline.moveTo(x, y);
+			else mOutline.lineTo(x, y);
+		}
+		mOutline.close();
+		canvas.drawPath(mOutline, mOutlinePaint);
+
+		for (int i = TARGET_CORNERS.length; i < mSmoothed.length; i += 2) {
+			canvas.drawCircle(toViewX(mSmoothed[i]), toViewY(mSmoothed[i + 1]), 
+					mHotspotRadius, mHotspotPaint);
+		}
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		if (!mVisible || mListener == null || mItems.isEmpty()) 
+			return super.onTouchEvent(event);
+
+		int hit = findHotspot(event.getX(), event.getY());
+		if (hit < 0) return super.onTouchEvent(event);
+		if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+			mListener.onHotspotClick(mTarget, mItems.get(hit));
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the hotspot closest to a view location, within the touch radius.
+	 * 
+	 * @return Index of the hotspot in the item list, or -1 if none.
+	 */
+	private int findHotspot(float x, float y) {
+		int best = -1;
+		float bestDist = mTouchRadius * mTouchRadius;
+		for (int i = 0; i < mItems.size(); ++i) {
+			int o = TARGET_CORNERS.length + 2 * i;
+			float dx = toViewX(mSmoothed[o]) - x;
+			float dy = toViewY(mSmoothed[o + 1]) - y;
+			float d = dx * dx + dy * dy;
+			if (d <= bestDist) {
+				bestDist = d;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	private float toViewX(float x) {
+		return (x + 1) * 0.5f * getWidth();
+	}
+
+	private float toViewY(float y) {
+		return (y + 1) * 0.5f * getHeight();
+	}
+}